@@ -0,0 +1,80 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Offline stand-ins shared by the benchmarks: a fake BrowserStackLocal script
+ * and an HTTP stub serving a binary sized payload.
+ */
+final class BenchmarkFixtures {
+
+    static final int PAYLOAD_SIZE = 20 * 1024 * 1024;
+
+    private BenchmarkFixtures() {
+    }
+
+    static File fakeBinary() throws IOException {
+        File dir = Files.createTempDirectory("bslocal-bench").toFile();
+        File binary = new File(dir, "BrowserStackLocal");
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/BrowserStackLocal")) {
+            Files.copy(in, binary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        binary.setExecutable(true, true);
+        dir.deleteOnExit();
+        binary.deleteOnExit();
+        return binary;
+    }
+
+    static HttpServer binaryServer() throws IOException {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        new Random(1).nextBytes(payload);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/BrowserStackLocal", exchange -> {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", "\"bench\"");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(payload.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+
+            int start = 0;
+            int end = payload.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                    end = Integer.parseInt(bounds[1]);
+                }
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + payload.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+            } else {
+                exchange.sendResponseHeaders(200, payload.length);
+            }
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(payload, start, end - start + 1);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    static int currentPid() {
+        return Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+    }
+}
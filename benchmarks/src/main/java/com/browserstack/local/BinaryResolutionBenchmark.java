@@ -0,0 +1,50 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving a binary that is already on disk, with and without the
+ * process-wide validation cache. The cold case forks the fake binary's
+ * --version, which is what validateBinary costs on every miss.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinaryResolutionBenchmark {
+
+    private File binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        binary = BenchmarkFixtures.fakeBinary();
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clear(BinaryResolutionBenchmark benchmark) {
+            /* Also drops the on-disk stamp, which would otherwise make every resolve warm */
+            BinaryCache.invalidate(benchmark.binary.getPath());
+        }
+    }
+
+    @Benchmark
+    public String resolveCold(ColdCache cold) throws Exception {
+        return new LocalBinary(binary.getPath(), "benchmark-key").getBinaryPath();
+    }
+
+    @Benchmark
+    public String resolveCached() throws Exception {
+        return new LocalBinary(binary.getPath(), "benchmark-key").getBinaryPath();
+    }
+}
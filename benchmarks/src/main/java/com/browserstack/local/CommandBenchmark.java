@@ -0,0 +1,53 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the daemon command line for a typical set of options, from
+ * an options map and from prebuilt {@link LocalOptions}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandBenchmark {
+
+    private static final String BINARY_PATH = "/tmp/BrowserStackLocal";
+
+    private Map<String, String> options;
+    private LocalOptions prebuilt;
+
+    @Setup
+    public void setUp() {
+        options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        options.put("v", "true");
+        options.put("force", "true");
+        options.put("localIdentifier", "benchmark");
+        options.put("only", "localhost,8080,0");
+        options.put("proxyHost", "127.0.0.1");
+        options.put("proxyPort", "3128");
+        options.put("logFile", "/tmp/local.log");
+        prebuilt = LocalOptions.fromMap(options);
+    }
+
+    @Benchmark
+    public List<String> startCommandFromMap() {
+        return LocalOptions.fromMap(options).command(BINARY_PATH, "start");
+    }
+
+    @Benchmark
+    public List<String> startCommandPrebuilt() {
+        return prebuilt.command(BINARY_PATH, "start");
+    }
+}
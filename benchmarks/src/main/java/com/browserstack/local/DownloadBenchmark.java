@@ -0,0 +1,59 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of downloading a binary sized payload from a local HTTP stub, over a
+ * single stream and over parallel range requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DownloadBenchmark {
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private HttpServer server;
+    private URL url;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = BenchmarkFixtures.binaryServer();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/BrowserStackLocal");
+        target = new File(Files.createTempDirectory("bslocal-bench").toFile(), "BrowserStackLocal");
+    }
+
+    @Setup(Level.Invocation)
+    public void clean() {
+        target.delete();
+    }
+
+    @Benchmark
+    public String download() throws Exception {
+        return BinaryDownloader.download(url, target, null, connections);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        target.delete();
+        target.getParentFile().delete();
+    }
+}
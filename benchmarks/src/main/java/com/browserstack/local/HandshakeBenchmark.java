@@ -0,0 +1,59 @@
+package com.browserstack.local;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the daemon's JSON handshake, in isolation and as part of a
+ * full start and stop against the fake binary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandshakeBenchmark {
+
+    private byte[] stdout;
+    private byte[] stderr;
+    private Map<String, String> options;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            log.append("[INFO] establishing connection ").append(i).append('\n');
+        }
+        stdout = "{\"state\":\"connected\",\n\"pid\":1234,\n\"message\":{\"message\":\"Connected\"}}\n".getBytes("utf-8");
+        stderr = log.toString().getBytes("utf-8");
+
+        File binary = BenchmarkFixtures.fakeBinary();
+        options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        options.put("binarypath", binary.getPath());
+    }
+
+    @Benchmark
+    public JSONObject parseHandshake() throws Exception {
+        return ProcessOutput.capture(new ByteArrayInputStream(stdout), new ByteArrayInputStream(stderr)).awaitState();
+    }
+
+    @Benchmark
+    public int startStopFakeDaemon() throws Exception {
+        Local local = new Local();
+        local.start(options);
+        int pid = local.pid;
+        local.stop();
+        return pid;
+    }
+}
@@ -0,0 +1,55 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a full start/stop cycle through the in-memory fake daemon, the
+ * baseline for orchestration code, and through the default launcher forking
+ * the fake binary script.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LauncherBenchmark {
+
+    private FakeDaemonLauncher fakeDaemon;
+    private Map<String, String> options;
+
+    @Setup
+    public void setUp() throws Exception {
+        File binary = BenchmarkFixtures.fakeBinary();
+        fakeDaemon = new FakeDaemonLauncher();
+        options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        options.put("binarypath", binary.getPath());
+    }
+
+    @Benchmark
+    public int startStopFakeDaemon() throws Exception {
+        Local local = new Local(fakeDaemon);
+        local.start(options);
+        int pid = local.pid;
+        local.stop();
+        return pid;
+    }
+
+    @Benchmark
+    public int startStopForked() throws Exception {
+        Local local = new Local(new DefaultProcessLauncher());
+        local.start(options);
+        int pid = local.pid;
+        local.stop();
+        return pid;
+    }
+}
@@ -0,0 +1,33 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of Local.isRunning() for a live process, here the benchmark JVM itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LivenessBenchmark {
+
+    private Local local;
+
+    @Setup
+    public void setUp() {
+        local = new Local();
+        local.pid = BenchmarkFixtures.currentPid();
+    }
+
+    @Benchmark
+    public boolean isRunning() throws Exception {
+        return local.isRunning();
+    }
+}
@@ -0,0 +1,52 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files so that readers, in this or another process, see either
+ * the old or the new content and never a partly written file.
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Writes content to a uniquely named temporary file beside the target and
+     * moves it over the target
+     *
+     * @param target File to replace
+     * @param content New content
+     * @throws IOException if the content cannot be written
+     */
+    static void write(File target, byte[] content) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        Path temp = Files.createTempFile(parent.toPath(), target.getName() + ".", ".tmp");
+        try {
+            Files.write(temp, content);
+            move(temp.toFile(), target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Moves a file over the target, atomically where the file system allows
+     *
+     * @param source File to move
+     * @param target File to replace
+     * @throws IOException if the file cannot be moved
+     */
+    static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.browserstack.local;
+
+import java.util.Random;
+
+/**
+ * Bounded exponential backoff with full jitter.
+ *
+ * The delay before retry n is drawn uniformly from [0, min(max, base * 2^n)),
+ * which keeps the expected wait bounded while spreading out clients that
+ * failed at the same moment.
+ */
+final class Backoff {
+
+    static final Backoff DEFAULT = new Backoff(5, 500, 8000);
+
+    private static final Random random = new Random();
+
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long maxMillis;
+
+    Backoff(int maxAttempts, long baseMillis, long maxMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the delay to wait after the given failed attempt.
+     *
+     * @param attempt Zero based number of the attempt that failed
+     * @return delay in milliseconds
+     */
+    long delayMillis(int attempt) {
+        long ceiling = maxMillis;
+        if (attempt < 31 && baseMillis << attempt > 0) {
+            ceiling = Math.min(maxMillis, baseMillis << attempt);
+        }
+        if (ceiling <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of validated BrowserStackLocal binaries.
+ *
+ * An entry is keyed by the binary path and remembers the file's modification
+ * time and size at the time it was validated, so it is dropped as soon as the
+ * file on disk changes or the TTL runs out.
+ *
+ * Each validation is also stamped into a file under
+ * ~/.browserstack/validated, named by the hash of the binary's canonical
+ * path, so a binary validated by another JVM, for example by a prefetch
+ * during the build, does not have to be checked again. Stamps are kept out of
+ * the binary's own directory, which may be read-only or shared.
+ */
+final class BinaryCache {
+
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    static final File DEFAULT_STAMP_DIRECTORY = new File(System.getProperty("user.home"), ".browserstack/validated");
+
+    static final String STAMP_SUFFIX = ".validated";
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private static final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    private static volatile long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+
+    private static volatile File stampDirectory = DEFAULT_STAMP_DIRECTORY;
+
+    private BinaryCache() {
+    }
+
+    /**
+     * Returns the monitor callers should hold while validating the binary at
+     * the given path, so concurrent validations of one file collapse into one.
+     *
+     * @param path Path of the binary
+     * @return lock object shared by every caller for that path
+     */
+    static Object lockFor(String path) {
+        String key = keyFor(path);
+        Object lock = locks.get(key);
+        if (lock == null) {
+            Object created = new Object();
+            lock = locks.putIfAbsent(key, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Checks whether the binary at the given path was validated recently and
+     * has not changed on disk since.
+     *
+     * @param path Path of the binary
+     * @return true if a still-fresh validation is cached
+     */
+    static boolean isValidated(String path) {
+        String key = keyFor(path);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = readStamp(path);
+            if (entry == null) {
+                return false;
+            }
+            entries.putIfAbsent(key, entry);
+        }
+
+        File file = new File(path);
+        if (!file.isFile()
+                || file.lastModified() != entry.lastModified
+                || file.length() != entry.length
+                || System.nanoTime() - entry.validatedAt >= ttlNanos) {
+            entries.remove(key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a successful validation of the binary at the given path.
+     *
+     * @param path Path of the binary
+     */
+    static void markValidated(String path) {
+        File file = new File(path);
+        entries.put(keyFor(path), new Entry(file.lastModified(), file.length(), System.nanoTime()));
+        File stamp = stampFor(path);
+        try {
+            stamp.getParentFile().mkdirs();
+            AtomicFiles.write(stamp, (file.lastModified() + " " + file.length()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            /* Other JVMs validate the binary again */
+        }
+    }
+
+    static void invalidate(String path) {
+        entries.remove(keyFor(path));
+        stampFor(path).delete();
+    }
+
+    static void clear() {
+        entries.clear();
+    }
+
+    static void setTtl(long duration, TimeUnit unit) {
+        ttlNanos = unit.toNanos(duration);
+    }
+
+    static void setStampDirectory(File directory) {
+        stampDirectory = directory;
+    }
+
+    static File stampFor(String path) {
+        String name = BinaryDownloader.toHex(BinaryDownloader.newDigest()
+                .digest(keyFor(path).getBytes(StandardCharsets.UTF_8)));
+        return new File(stampDirectory, name + STAMP_SUFFIX);
+    }
+
+    /**
+     * Reads the validation stamp of the binary, returning null if there is
+     * none or it is older than the TTL. Expired stamps are deleted.
+     */
+    private static Entry readStamp(String path) {
+        File stamp = stampFor(path);
+        if (!stamp.isFile()) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - stamp.lastModified();
+        if (age < 0 || TimeUnit.MILLISECONDS.toNanos(age) >= ttlNanos) {
+            stamp.delete();
+            return null;
+        }
+        try {
+            String[] parts = new String(Files.readAllBytes(stamp.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+            return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(age));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String keyFor(String path) {
+        File file = new File(path);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static final class Entry {
+        final long lastModified;
+        final long length;
+        final long validatedAt;
+
+        Entry(long lastModified, long length, long validatedAt) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads the BrowserStackLocal binary.
+ *
+ * Bytes are copied through a heap buffer owned by each transfer straight
+ * into a ".part" file while their SHA-256 digest is computed. The file is
+ * only synced and renamed over the target once its length and digest check
+ * out, so a bad transfer never replaces a binary.
+ *
+ * A transfer that breaks off leaves the ".part" file behind. Later attempts,
+ * in this or another process, resume it with an HTTP Range request guarded by
+ * If-Range, so a binary that changed on the server is fetched from scratch
+ * instead of being spliced.
+ *
+ * When more than one connection is requested and the server supports byte
+ * ranges, the binary is instead split into segments that are fetched
+ * concurrently into a preallocated file with positional writes.
+ */
+final class BinaryDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Smallest segment worth a separate connection
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private BinaryDownloader() {
+    }
+
+    /**
+     * Downloads url into target, resuming and retrying with the default backoff.
+     *
+     * @param url Location of the binary
+     * @param target File the binary is atomically moved to
+     * @param expectedSha256 Hex encoded digest the download must match, or null to skip the check
+     * @return hex encoded SHA-256 digest of the downloaded binary
+     * @throws IOException if every attempt fails or the content does not verify
+     */
+    static String download(URL url, File target, String expectedSha256) throws IOException {
+        return download(url, target, expectedSha256, 1, Backoff.DEFAULT);
+    }
+
+    /**
+     * Downloads url into target using up to the given number of connections.
+     *
+     * @param url Location of the binary
+     * @param target File the binary is atomically moved to
+     * @param expectedSha256 Hex encoded digest the download must match, or null to skip the check
+     * @param connections Number of parallel range requests to use, 1 for a single stream
+     * @return hex encoded SHA-256 digest of the downloaded binary
+     * @throws IOException if every attempt fails or the content does not verify
+     */
+    static String download(URL url, File target, String expectedSha256, int connections) throws IOException {
+        return download(url, target, expectedSha256, connections, Backoff.DEFAULT);
+    }
+
+    static String download(URL url, File target, String expectedSha256, int connections, Backoff backoff) throws IOException {
+        return download(url, target, expectedSha256, connections, backoff, LocalMetricsListener.NONE);
+    }
+
+    static String download(URL url, File target, String expectedSha256, int connections, Backoff backoff,
+                           LocalMetricsListener metrics) throws IOException {
+        return download(url, target, expectedSha256, connections, backoff, metrics, Deadline.NONE);
+    }
+
+    /**
+     * Downloads url into target, giving up once the deadline has passed.
+     * Every connection times out no later than the deadline and no retry is
+     * started whose backoff would outlast it.
+     *
+     * @param url Location of the binary
+     * @param target File the binary is atomically moved to
+     * @param expectedSha256 Hex encoded digest the download must match, or null to skip the check
+     * @param connections Number of parallel range requests to use, 1 for a single stream
+     * @param backoff Retry policy
+     * @param metrics Listener for downloaded bytes and retries
+     * @param deadline Time by which the download has to be done
+     * @return hex encoded SHA-256 digest of the downloaded binary
+     * @throws IOException if every attempt fails, the content does not verify or the deadline passes
+     */
+    static String download(URL url, File target, String expectedSha256, int connections, Backoff backoff,
+                           LocalMetricsListener metrics, Deadline deadline) throws IOException {
+        if (connections > 1) {
+            RangeSupport ranges = probeRanges(url, deadline);
+            if (ranges != null && ranges.length >= 2 * MIN_SEGMENT_SIZE) {
+                int segments = (int) Math.min(connections, ranges.length / MIN_SEGMENT_SIZE);
+                return downloadSegmented(ranges, target, expectedSha256, segments, backoff, metrics, deadline);
+            }
+        }
+
+        IOException failure = null;
+        for (int attempt = 0; attempt < backoff.getMaxAttempts(); attempt++) {
+            if (attempt > 0) {
+                metrics.onRetry(LocalMetricsListener.Phase.DOWNLOAD);
+                pause(backoff, attempt - 1, url, deadline);
+            }
+
+            try {
+                return attempt(url, target, expectedSha256, metrics, deadline);
+            } catch (ChecksumException | DeadlineExceededException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private static void pause(Backoff backoff, int attempt, URL url, Deadline deadline) throws IOException {
+        long delay = backoff.delayMillis(attempt);
+        if (TimeUnit.MILLISECONDS.toNanos(delay) >= deadline.remainingNanos()) {
+            throw new IOException("No time left to retry download of " + url);
+        }
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying download of " + url);
+        }
+    }
+
+    /**
+     * Issues a HEAD request and returns what is needed for a segmented
+     * download, or null if the server does not serve byte ranges.
+     */
+    private static RangeSupport probeRanges(URL url, Deadline deadline) {
+        try {
+            URLConnection conn = HttpTransport.open(url, deadline);
+            if (!(conn instanceof HttpURLConnection)) {
+                return null;
+            }
+            HttpURLConnection http = (HttpURLConnection) conn;
+            http.setRequestMethod("HEAD");
+            http.setRequestProperty("Accept-Encoding", "identity");
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK
+                    || !"bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"))
+                    || http.getContentEncoding() != null) {
+                HttpTransport.release(http);
+                return null;
+            }
+
+            long length = http.getContentLengthLong();
+            if (length <= 0) {
+                return null;
+            }
+            String validator = http.getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = http.getHeaderField("Last-Modified");
+            }
+            return new RangeSupport(http.getURL(), length, validator);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String downloadSegmented(final RangeSupport ranges, File target, String expectedSha256,
+                                            int segments, final Backoff backoff,
+                                            final LocalMetricsListener metrics,
+                                            final Deadline deadline) throws IOException {
+        File part = partFile(target);
+        validatorFile(target).delete();
+
+        ExecutorService executor = Executors.newFixedThreadPool(segments,
+                LocalExecutors.daemonThreadFactory("BrowserStackLocal-download"));
+
+        boolean complete = false;
+        String actualSha256;
+        try (final FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            /* Preallocate so segments can be written at their final positions */
+            out.write(ByteBuffer.wrap(new byte[1]), ranges.length - 1);
+
+            long segmentSize = (ranges.length + segments - 1) / segments;
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (long start = 0; start < ranges.length; start += segmentSize) {
+                final long from = start;
+                final long to = Math.min(ranges.length, start + segmentSize) - 1;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        fetchSegment(ranges, out, from, to, backoff, metrics, deadline);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + ranges.url);
+                }
+            }
+
+            out.force(true);
+            MessageDigest digest = newDigest();
+            digestExisting(out, ranges.length, digest);
+
+            actualSha256 = toHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(actualSha256)) {
+                throw new ChecksumException("Checksum mismatch, expected " + expectedSha256 + " but got " + actualSha256);
+            }
+            complete = true;
+        } finally {
+            executor.shutdownNow();
+            if (!complete) {
+                /* A partially filled preallocated file cannot be resumed as a prefix */
+                discard(target);
+            }
+        }
+
+        part.setExecutable(true, true);
+        part.setReadable(true, true);
+        part.setWritable(true, true);
+        AtomicFiles.move(part, target);
+        return actualSha256;
+    }
+
+    private static void fetchSegment(RangeSupport ranges, FileChannel out, long from, long to, Backoff backoff,
+                                     LocalMetricsListener metrics, Deadline deadline) throws IOException {
+        long position = from;
+        IOException failure = null;
+        for (int attempt = 0; attempt < backoff.getMaxAttempts() && position <= to; attempt++) {
+            if (attempt > 0) {
+                metrics.onRetry(LocalMetricsListener.Phase.DOWNLOAD);
+                pause(backoff, attempt - 1, ranges.url, deadline);
+            }
+
+            try {
+                HttpURLConnection conn = (HttpURLConnection) HttpTransport.open(ranges.url, deadline);
+                conn.setRequestProperty("Accept-Encoding", "identity");
+                conn.setRequestProperty("Range", "bytes=" + position + "-" + to);
+                if (ranges.validator != null) {
+                    conn.setRequestProperty("If-Range", ranges.validator);
+                }
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    HttpTransport.release(conn);
+                    throw new IOException("Server did not honour range " + position + "-" + to + " of " + ranges.url);
+                }
+                resumedLength(conn, position);
+
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                try (ReadableByteChannel source = Channels.newChannel(conn.getInputStream())) {
+                    buffer.clear();
+                    while (position <= to && source.read(buffer) != -1) {
+                        checkDeadline(deadline, ranges.url);
+                        buffer.flip();
+                        if (buffer.remaining() > to - position + 1) {
+                            buffer.limit((int) (to - position + 1));
+                        }
+                        metrics.onBytesDownloaded(buffer.remaining());
+                        while (buffer.hasRemaining()) {
+                            position += out.write(buffer, position);
+                        }
+                        buffer.clear();
+                    }
+                }
+                if (position <= to) {
+                    throw new IOException("Incomplete segment, stopped at byte " + position + " of " + to);
+                }
+            } catch (DeadlineExceededException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (position <= to) {
+            throw failure;
+        }
+    }
+
+    private static String attempt(URL url, File target, String expectedSha256, LocalMetricsListener metrics,
+                                  Deadline deadline) throws IOException {
+        File part = partFile(target);
+        File validatorFile = validatorFile(target);
+        long offset = part.isFile() ? part.length() : 0;
+        String validator = offset > 0 && validatorFile.isFile()
+                ? new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8) : null;
+        if (offset > 0 && validator == null) {
+            /* Without a validator we cannot tell whether the partial file is still current */
+            offset = 0;
+        }
+
+        URLConnection conn = HttpTransport.open(url, deadline);
+        if (offset > 0) {
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", "bytes=" + offset + "-");
+            conn.setRequestProperty("If-Range", validator);
+        } else {
+            conn.setRequestProperty("Accept-Encoding", "gzip, *");
+        }
+
+        int status = conn instanceof HttpURLConnection ? ((HttpURLConnection) conn).getResponseCode() : 200;
+        long expectedLength;
+        if (offset > 0 && status == HttpURLConnection.HTTP_PARTIAL) {
+            expectedLength = resumedLength(conn, offset);
+        } else if (status == 416) {
+            /* The partial file is no longer satisfiable, start over next time */
+            HttpTransport.release(conn);
+            discard(target);
+            throw new IOException("Server rejected resume of " + url + " at byte " + offset);
+        } else if (status >= 400) {
+            HttpTransport.release(conn);
+            throw new IOException("Server returned HTTP " + status + " for " + url);
+        } else {
+            offset = 0;
+            expectedLength = -1;
+        }
+
+        String contentEncoding = conn.getContentEncoding();
+        boolean gzip = contentEncoding != null && contentEncoding.toLowerCase().contains("gzip");
+        if (offset == 0) {
+            expectedLength = gzip ? -1 : conn.getContentLengthLong();
+            saveValidator(conn, validatorFile);
+        }
+
+        if (gzip && System.getenv().containsKey("BROWSERSTACK_LOCAL_DEBUG_GZIP")) {
+            System.out.println("using gzip in " + conn.getRequestProperty("User-Agent"));
+        }
+
+        MessageDigest digest = newDigest();
+        try (InputStream raw = conn.getInputStream();
+             InputStream in = gzip ? new GZIPInputStream(raw) : raw;
+             ReadableByteChannel source = Channels.newChannel(in);
+             FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (offset > 0) {
+                digestExisting(out, offset, digest);
+            } else {
+                out.truncate(0);
+            }
+            out.position(offset);
+
+            long written = offset + copy(source, out, digest, metrics, deadline, url);
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException("Incomplete download, received " + written + " of " + expectedLength + " bytes");
+            }
+            out.force(true);
+        }
+
+        String actualSha256 = toHex(digest.digest());
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(actualSha256)) {
+            discard(target);
+            throw new ChecksumException("Checksum mismatch, expected " + expectedSha256 + " but got " + actualSha256);
+        }
+
+        part.setExecutable(true, true);
+        part.setReadable(true, true);
+        part.setWritable(true, true);
+        AtomicFiles.move(part, target);
+        validatorFile.delete();
+        return actualSha256;
+    }
+
+    static File partFile(File target) {
+        return new File(target.getPath() + ".part");
+    }
+
+    private static File validatorFile(File target) {
+        return new File(target.getPath() + ".part.etag");
+    }
+
+    private static void discard(File target) {
+        partFile(target).delete();
+        validatorFile(target).delete();
+    }
+
+    private static long resumedLength(URLConnection conn, long offset) throws IOException {
+        String contentRange = conn.getHeaderField("Content-Range");
+        Matcher m = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.trim());
+        if (m == null || !m.matches() || Long.parseLong(m.group(1)) != offset) {
+            throw new IOException("Unexpected Content-Range " + contentRange + " when resuming at byte " + offset);
+        }
+        return "*".equals(m.group(3)) ? -1 : Long.parseLong(m.group(3));
+    }
+
+    private static void saveValidator(URLConnection conn, File validatorFile) throws IOException {
+        String validator = conn.getHeaderField("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = conn.getHeaderField("Last-Modified");
+        }
+        if (validator == null) {
+            validatorFile.delete();
+        } else {
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void digestExisting(FileChannel channel, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            if (length - position < buffer.capacity()) {
+                buffer.limit((int) (length - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Partial download shrank while resuming");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static long copy(ReadableByteChannel source, FileChannel out, MessageDigest digest,
+                             LocalMetricsListener metrics, Deadline deadline, URL url) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long total = 0;
+        buffer.clear();
+        while (source.read(buffer) != -1) {
+            checkDeadline(deadline, url);
+            buffer.flip();
+            metrics.onBytesDownloaded(buffer.remaining());
+            digest.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                total += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    /**
+     * Fails once the deadline has passed. Read timeouts only bound the wait
+     * for each read, so a server trickling bytes would otherwise keep a
+     * download going past the deadline.
+     */
+    private static void checkDeadline(Deadline deadline, URL url) throws DeadlineExceededException {
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException("Deadline passed while downloading " + url);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static final class RangeSupport {
+        final URL url;
+        final long length;
+        final String validator;
+
+        RangeSupport(URL url, long length, String validator) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * Raised when a completed download does not match the expected digest.
+     * Retrying the same source would not help, so it is never retried.
+     */
+    static final class ChecksumException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Raised when the deadline passes in the middle of a download. No time is
+     * left for another attempt, so it is never retried.
+     */
+    static final class DeadlineExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+}
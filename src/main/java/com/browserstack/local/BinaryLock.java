@@ -0,0 +1,141 @@
+package com.browserstack.local;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock guarding writes to a binary path, held across threads and
+ * JVMs on the same host.
+ *
+ * The cross-process part is a {@link FileLock} on a sibling ".lock" file.
+ * File locks are owned by the whole JVM, so threads of one JVM are first
+ * serialised on an in-memory lock for the same path.
+ */
+final class BinaryLock implements Closeable {
+
+    // How often a lock held by another process is tried again while waiting with a deadline
+    static final long POLL_INTERVAL_MILLIS = 50;
+
+    private static final ConcurrentMap<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final ReentrantLock threadLock;
+    private final RandomAccessFile lockFile;
+    private final FileLock fileLock;
+
+    private BinaryLock(ReentrantLock threadLock, RandomAccessFile lockFile, FileLock fileLock) {
+        this.threadLock = threadLock;
+        this.lockFile = lockFile;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until this thread holds the lock for the given binary.
+     *
+     * @param target Binary file that is about to be written
+     * @return the held lock, to be closed once the write is done
+     * @throws IOException if the lock file cannot be created or locked
+     */
+    static BinaryLock acquire(File target) throws IOException {
+        return acquire(target, Deadline.NONE);
+    }
+
+    /**
+     * Waits until this thread holds the lock for the given binary, at most
+     * until the deadline. Another process holding the lock, for example one
+     * stuck in a download, cannot block a start beyond its deadline.
+     *
+     * @param target Binary file that is about to be written
+     * @param deadline Time by which the lock has to be held
+     * @return the held lock, to be closed once the write is done
+     * @throws IOException if the lock file cannot be created or locked, or the deadline passes first
+     */
+    static BinaryLock acquire(File target, Deadline deadline) throws IOException {
+        File lock = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".lock");
+        String key = lock.getCanonicalPath();
+
+        ReentrantLock threadLock = threadLocks.get(key);
+        if (threadLock == null) {
+            ReentrantLock created = new ReentrantLock();
+            threadLock = threadLocks.putIfAbsent(key, created);
+            if (threadLock == null) {
+                threadLock = created;
+            }
+        }
+
+        if (!deadline.isBounded()) {
+            threadLock.lock();
+        } else {
+            try {
+                if (!threadLock.tryLock(deadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+                    throw timedOut(lock);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + lock);
+            }
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(lock, "rw");
+            FileChannel channel = raf.getChannel();
+            return new BinaryLock(threadLock, raf, deadline.isBounded() ? poll(channel, lock, deadline) : channel.lock());
+        } catch (IOException e) {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+            threadLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    private static FileLock poll(FileChannel channel, File lock, Deadline deadline) throws IOException {
+        while (true) {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock != null) {
+                return fileLock;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos());
+            if (remaining <= 0) {
+                throw timedOut(lock);
+            }
+            try {
+                Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + lock);
+            }
+        }
+    }
+
+    private static IOException timedOut(File lock) {
+        return new IOException("Timed out waiting for " + lock + ", held by another start");
+    }
+
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+        } finally {
+            try {
+                lockFile.close();
+            } finally {
+                threadLock.unlock();
+            }
+        }
+    }
+}
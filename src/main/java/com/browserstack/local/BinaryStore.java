@@ -0,0 +1,270 @@
+package com.browserstack.local;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every BrowserStackLocal binary downloaded on this host, so an earlier
+ * version can be pinned or rolled back to without a download.
+ *
+ * Binaries are stored by the SHA-256 of their content, as
+ * "&lt;sha256&gt;/&lt;binary name&gt;", and an index file records the
+ * platform, version, size and last use of each. The index is replaced
+ * atomically, so lookups read it without a lock; changes are made under a
+ * {@link BinaryLock} on it. Once the binaries take up more than the size
+ * budget, the least recently used ones are removed, except those a daemon
+ * recorded by {@link DaemonMarkers} is still running from.
+ */
+final class BinaryStore {
+
+    static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".browserstack/store");
+
+    static final String INDEX_FILE = "index.json";
+
+    static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    // Lookups only record their use this often, to keep reads from writing the index every time
+    static final long TOUCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File directory;
+    private final File index;
+    private final long maxBytes;
+
+    BinaryStore(File directory, long maxBytes) {
+        this.directory = directory.getAbsoluteFile();
+        this.index = new File(this.directory, INDEX_FILE);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Finds a stored binary
+     *
+     * @param platform Published binary name, such as "BrowserStackLocal-linux-x64"
+     * @param version Version such as "8.9", or null for the most recently used one
+     * @return the binary, or null if none is stored
+     */
+    File lookup(String platform, String version) {
+        JSONObject best = null;
+        for (JSONObject entry : entries(readIndex())) {
+            if (!platform.equals(entry.optString("platform"))
+                    || (version != null && !version.equals(entry.optString("version")))) {
+                continue;
+            }
+            if (best == null || entry.optLong("lastUsed") > best.optLong("lastUsed")) {
+                best = entry;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        File binary = new File(directory, best.getString("file"));
+        if (!binary.isFile()) {
+            return null;
+        }
+        if (System.currentTimeMillis() - best.optLong("lastUsed") > TOUCH_INTERVAL_MILLIS) {
+            touch(best.getString("sha256"));
+        }
+        return binary;
+    }
+
+    /**
+     * Adds a validated binary to the store, as a hard link where the file
+     * system allows and otherwise as a copy, unless the same content is
+     * already there. Least recently used binaries over the budget are evicted.
+     *
+     * @param binary Binary to store
+     * @param sha256 Hex encoded SHA-256 of the binary, as returned by the download
+     * @param platform Published binary name
+     * @param version Version reported by the binary
+     * @return the stored copy
+     * @throws IOException if the binary cannot be stored
+     */
+    File put(File binary, String sha256, String platform, String version) throws IOException {
+        File entryDir = new File(directory, sha256);
+        File stored = new File(entryDir, platform.endsWith(".exe") ? "BrowserStackLocal.exe" : "BrowserStackLocal");
+
+        directory.mkdirs();
+        try (BinaryLock lock = BinaryLock.acquire(index)) {
+            if (!stored.isFile()) {
+                entryDir.mkdirs();
+                File temp = new File(entryDir, stored.getName() + ".tmp");
+                temp.delete();
+                try {
+                    /* Downloads replace the binary with a new file, so a link stays intact */
+                    Files.createLink(temp.toPath(), binary.getAbsoluteFile().toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(binary.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                temp.setExecutable(true, true);
+                AtomicFiles.move(temp, stored);
+            }
+
+            List<JSONObject> entries = entries(readIndex());
+            for (JSONObject entry : entries) {
+                if (sha256.equals(entry.optString("sha256"))) {
+                    entries.remove(entry);
+                    break;
+                }
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("sha256", sha256);
+            entry.put("platform", platform);
+            entry.put("version", version);
+            entry.put("size", stored.length());
+            entry.put("lastUsed", System.currentTimeMillis());
+            entry.put("file", sha256 + "/" + stored.getName());
+            entries.add(entry);
+
+            evict(entries, sha256);
+            writeIndex(entries);
+        }
+        return stored;
+    }
+
+    /**
+     * Removes a binary from the store, for example one that no longer passes
+     * validation
+     *
+     * @param binary Stored binary
+     */
+    void remove(File binary) {
+        try (BinaryLock lock = BinaryLock.acquire(index)) {
+            List<JSONObject> entries = entries(readIndex());
+            for (JSONObject entry : entries) {
+                if (new File(directory, entry.optString("file")).equals(binary.getAbsoluteFile())) {
+                    entries.remove(entry);
+                    delete(entry);
+                    break;
+                }
+            }
+            writeIndex(entries);
+        } catch (IOException ignored) {
+            /* It is removed the next time the store is changed */
+        }
+    }
+
+    /**
+     * Records that a daemon runs from the given binary, if it is a stored one,
+     * so it is not evicted while the daemon still needs it
+     *
+     * @param binary Binary the daemon was started from
+     * @param pid pid of the daemon
+     */
+    void recordDaemon(File binary, int pid) {
+        File entryDir = binary.getAbsoluteFile().getParentFile();
+        if (entryDir != null && directory.equals(entryDir.getParentFile())) {
+            DaemonMarkers.record(entryDir, pid);
+        }
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    private void touch(String sha256) {
+        try (BinaryLock lock = BinaryLock.acquire(index)) {
+            List<JSONObject> entries = entries(readIndex());
+            for (JSONObject entry : entries) {
+                if (sha256.equals(entry.optString("sha256"))) {
+                    entry.put("lastUsed", System.currentTimeMillis());
+                }
+            }
+            writeIndex(entries);
+        } catch (IOException ignored) {
+            /* Only affects which binary is evicted first */
+        }
+    }
+
+    /**
+     * Drops least recently used entries until the rest fit the budget. The
+     * entry just added and those with a running daemon are always kept.
+     */
+    private void evict(List<JSONObject> entries, String keep) {
+        long total = 0;
+        for (JSONObject entry : entries) {
+            total += entry.optLong("size");
+        }
+
+        List<JSONObject> oldestFirst = new ArrayList<JSONObject>(entries);
+        Collections.sort(oldestFirst, byLastUsed());
+        for (JSONObject entry : oldestFirst) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (keep.equals(entry.optString("sha256"))
+                    || DaemonMarkers.hasRunning(new File(directory, entry.optString("sha256")))) {
+                continue;
+            }
+            if (delete(entry)) {
+                entries.remove(entry);
+                total -= entry.optLong("size");
+            }
+        }
+    }
+
+    private boolean delete(JSONObject entry) {
+        File binary = new File(directory, entry.optString("file"));
+        /* On Windows a binary a daemon is running from cannot be deleted, it stays indexed */
+        if (binary.exists() && !binary.delete()) {
+            return false;
+        }
+        File[] markers = binary.getParentFile().listFiles((dir, name) -> name.endsWith(DaemonMarkers.PID_SUFFIX));
+        if (markers != null) {
+            for (File marker : markers) {
+                marker.delete();
+            }
+        }
+        binary.getParentFile().delete();
+        return true;
+    }
+
+    private static Comparator<JSONObject> byLastUsed() {
+        return Comparator.comparingLong(entry -> entry.optLong("lastUsed"));
+    }
+
+    private static List<JSONObject> entries(JSONObject index) {
+        List<JSONObject> entries = new ArrayList<JSONObject>();
+        JSONArray array = index != null ? index.optJSONArray("entries") : null;
+        if (array == null) {
+            return entries;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject entry = array.optJSONObject(i);
+            if (entry != null && entry.has("sha256") && entry.has("file")) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private JSONObject readIndex() {
+        if (!index.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(Files.readAllBytes(index.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    private void writeIndex(List<JSONObject> entries) throws IOException {
+        JSONObject state = new JSONObject();
+        state.put("entries", new JSONArray(entries));
+
+        AtomicFiles.write(index, state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
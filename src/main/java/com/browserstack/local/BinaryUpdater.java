@@ -0,0 +1,314 @@
+package com.browserstack.local;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the BrowserStackLocal binary in a download directory up to date
+ * without putting a download on the critical path of a start.
+ *
+ * A check asks the server for the binary's validator (ETag or Last-Modified)
+ * with a HEAD request. When it differs from the one recorded for the current
+ * binary, the new binary is downloaded into its own directory under
+ * "versions" and its --version output compared with the current one. Only a
+ * strictly newer binary becomes current, by atomically replacing the pointer
+ * file "BrowserStackLocal.current", so the next start picks it up while
+ * daemons already running from the old binary are left alone.
+ *
+ * A daemon started from a version directory is recorded there by
+ * {@link DaemonMarkers}, since its stop command runs the same binary. Old
+ * version directories are only removed once no marked daemon is alive.
+ */
+final class BinaryUpdater {
+
+    static final String POINTER_FILE = "BrowserStackLocal.current";
+
+    static final String VERSIONS_DIR = "versions";
+
+    static final long DEFAULT_CHECK_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    // Bound on a whole background check, which holds the pointer lock other JVMs wait on
+    static final long DEFAULT_CHECK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Pattern VERSION = Pattern.compile("BrowserStack Local version (\\d+)\\.(\\d+)");
+
+    // Directories with a check in flight in this JVM
+    private static final Set<String> checking = ConcurrentHashMap.newKeySet();
+
+    private final File directory;
+    private final String binaryName;
+    private final ProcessLauncher launcher;
+    private final long checkIntervalMillis;
+
+    BinaryUpdater(File directory, String binaryName, ProcessLauncher launcher) {
+        this(directory, binaryName, launcher, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    BinaryUpdater(File directory, String binaryName, ProcessLauncher launcher, long checkIntervalMillis) {
+        this.directory = directory.getAbsoluteFile();
+        this.binaryName = binaryName;
+        this.launcher = launcher;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Returns the binary the pointer file selects
+     *
+     * @return updated binary, or null if the default binary in the directory is current
+     */
+    File current() {
+        JSONObject state = readState();
+        if (state == null || !state.has("path")) {
+            return null;
+        }
+        File binary = new File(directory, state.getString("path"));
+        return binary.isFile() ? binary : null;
+    }
+
+    /**
+     * Runs {@link #check(File, Callable)} in the background if the last check
+     * is older than the check interval
+     *
+     * @param current Binary in use
+     * @param source Resolves the URL of the latest binary
+     */
+    void checkAsync(final File current, final Callable<URL> source) {
+        JSONObject state = readState();
+        if (state != null && System.currentTimeMillis() - state.optLong("checkedAt") < checkIntervalMillis) {
+            return;
+        }
+
+        final String key = directory.getPath();
+        if (!checking.add(key)) {
+            return;
+        }
+        try {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    check(current, source);
+                } catch (Exception ignored) {
+                    /* The current binary keeps working, the next start checks again */
+                } finally {
+                    checking.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            checking.remove(key);
+        }
+    }
+
+    /**
+     * Checks for a newer binary and switches to it if there is one, within
+     * the default check timeout
+     *
+     * @param current Binary in use
+     * @param source Resolves the URL of the latest binary
+     * @return true if a newer binary became current
+     * @throws Exception if the check or download fails
+     */
+    boolean check(File current, Callable<URL> source) throws Exception {
+        return check(current, source, Deadline.after(DEFAULT_CHECK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Checks for a newer binary and switches to it if there is one
+     *
+     * @param current Binary in use
+     * @param source Resolves the URL of the latest binary
+     * @param deadline Time by which the check has to be done, so the pointer lock is not held forever
+     * @return true if a newer binary became current
+     * @throws Exception if the check or download fails or the deadline passes
+     */
+    boolean check(File current, Callable<URL> source, Deadline deadline) throws Exception {
+        File pointer = new File(directory, POINTER_FILE);
+        try (BinaryLock lock = BinaryLock.acquire(pointer, deadline)) {
+            JSONObject state = readState();
+            if (state == null) {
+                state = new JSONObject();
+            }
+
+            URL url = source.call();
+            String validator = fetchValidator(url, deadline);
+            if (validator != null && validator.equals(state.optString("validator", null))) {
+                state.put("checkedAt", System.currentTimeMillis());
+                writeState(state);
+                return false;
+            }
+
+            File versionDir = new File(new File(directory, VERSIONS_DIR), String.valueOf(System.currentTimeMillis()));
+            File candidate = new File(versionDir, binaryName);
+            versionDir.mkdirs();
+
+            boolean swapped = false;
+            try {
+                BinaryDownloader.download(url, candidate, System.getenv("BROWSERSTACK_LOCAL_BINARY_SHA256"), 1,
+                        Backoff.DEFAULT, LocalMetricsListener.NONE, deadline);
+                String latest = version(candidate, deadline);
+                if (latest == null) {
+                    throw new LocalException("Downloaded BrowserStackLocal binary is corrupt");
+                }
+
+                String running = version(current, deadline);
+                if (running == null || compareVersions(latest, running) > 0) {
+                    state.put("path", directory.toPath().relativize(candidate.toPath()).toString());
+                    BinaryCache.markValidated(candidate.getPath());
+                    swapped = true;
+                }
+                state.put("validator", validator != null ? validator : JSONObject.NULL);
+                state.put("checkedAt", System.currentTimeMillis());
+                writeState(state);
+            } finally {
+                if (!swapped) {
+                    delete(versionDir);
+                }
+            }
+
+            if (swapped) {
+                prune(candidate.getParentFile(), current.getAbsoluteFile().getParentFile());
+            }
+            return swapped;
+        }
+    }
+
+    /**
+     * Records that a daemon runs from the given binary, if it is one this
+     * updater downloaded, so its directory is not pruned while the daemon
+     * still needs it
+     *
+     * @param binary Binary the daemon was started from
+     * @param pid pid of the daemon
+     */
+    static void recordDaemon(File binary, int pid) {
+        File versionDir = binary.getAbsoluteFile().getParentFile();
+        File versions = versionDir != null ? versionDir.getParentFile() : null;
+        if (versions != null && VERSIONS_DIR.equals(versions.getName())) {
+            DaemonMarkers.record(versionDir, pid);
+        }
+    }
+
+    /**
+     * Compares two "BrowserStack Local version x.y" outputs
+     *
+     * @param a --version output
+     * @param b --version output
+     * @return positive if a is the newer version, negative if b is, 0 if they are equal
+     */
+    static int compareVersions(String a, String b) {
+        Matcher ma = VERSION.matcher(a);
+        Matcher mb = VERSION.matcher(b);
+        if (!ma.matches() || !mb.matches()) {
+            throw new IllegalArgumentException("Not a BrowserStack Local version: " + (ma.matches() ? b : a));
+        }
+        int major = Integer.compare(Integer.parseInt(ma.group(1)), Integer.parseInt(mb.group(1)));
+        return major != 0 ? major : Integer.compare(Integer.parseInt(ma.group(2)), Integer.parseInt(mb.group(2)));
+    }
+
+    /**
+     * Runs the binary's --version, killing it once the deadline passes
+     *
+     * @return the version output, or null if the binary does not report one
+     * @throws LocalException if the deadline passes first
+     */
+    private String version(File binary, Deadline deadline) throws LocalException {
+        deadline.check(LocalMetricsListener.Phase.VALIDATE);
+        try {
+            Local.LocalProcess process = launcher.launch(Arrays.asList(binary.getPath(), "--version"));
+            String stdout;
+            try {
+                stdout = ProcessOutput.capture(process.getInputStream(), process.getErrorStream())
+                        .awaitStdout(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                process.destroy();
+                throw deadline.expired(LocalMetricsListener.Phase.VALIDATE);
+            }
+            process.waitFor();
+            return VERSION.matcher(stdout).matches() ? stdout : null;
+        } catch (LocalException e) {
+            throw e;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String fetchValidator(URL url, Deadline deadline) {
+        try {
+            URLConnection conn = HttpTransport.open(url, deadline);
+            if (!(conn instanceof HttpURLConnection)) {
+                return null;
+            }
+            HttpURLConnection http = (HttpURLConnection) conn;
+            http.setRequestMethod("HEAD");
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                HttpTransport.release(http);
+                return null;
+            }
+            String validator = http.getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = http.getHeaderField("Last-Modified");
+            }
+            return validator;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes version directories other than the new current one and the one
+     * it replaced, which a daemon may be starting from right now, unless a
+     * daemon started from them is still running
+     */
+    private void prune(File keep, File previous) {
+        File[] versions = new File(directory, VERSIONS_DIR).listFiles();
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.equals(keep) && !version.equals(previous) && !DaemonMarkers.hasRunning(version)) {
+                delete(version);
+            }
+        }
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                BinaryCache.invalidate(file.getPath());
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private JSONObject readState() {
+        File pointer = new File(directory, POINTER_FILE);
+        if (!pointer.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    private void writeState(JSONObject state) throws IOException {
+        AtomicFiles.write(new File(directory, POINTER_FILE), state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,65 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records daemons in the directory of the binary they were started from, as
+ * "&lt;pid&gt;.pid" markers, so the directory is not removed while a daemon
+ * still needs the binary for its stop command.
+ */
+final class DaemonMarkers {
+
+    static final String PID_SUFFIX = ".pid";
+
+    private DaemonMarkers() {
+    }
+
+    /**
+     * Marks a daemon as running from the given directory
+     *
+     * @param dir Directory of the binary the daemon was started from
+     * @param pid pid of the daemon
+     */
+    static void record(File dir, int pid) {
+        if (pid == 0) {
+            return;
+        }
+        try {
+            new File(dir, pid + PID_SUFFIX).createNewFile();
+        } catch (IOException ignored) {
+            /* The directory is then only kept by its owner's own rules */
+        }
+    }
+
+    /**
+     * Checks the pid markers of a directory, dropping those of daemons that
+     * have exited
+     *
+     * @param dir Directory to check
+     * @return true if a marked daemon may still be running
+     */
+    static boolean hasRunning(File dir) {
+        File[] markers = dir.listFiles((parent, name) -> name.endsWith(PID_SUFFIX));
+        if (markers == null) {
+            return false;
+        }
+        boolean running = false;
+        for (File marker : markers) {
+            String name = marker.getName();
+            Boolean alive;
+            try {
+                alive = ProcessLiveness.isAlive(Long.parseLong(name.substring(0, name.length() - PID_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                alive = false;
+            }
+            if (Boolean.FALSE.equals(alive)) {
+                marker.delete();
+            } else {
+                /* Kept when liveness cannot be told */
+                running = true;
+            }
+        }
+        return running;
+    }
+}
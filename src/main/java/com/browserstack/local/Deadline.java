@@ -0,0 +1,103 @@
+package com.browserstack.local;
+
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a start has to be done, shared by all of its
+ * phases: endpoint fetch, download, validation and handshake.
+ *
+ * Each blocking step waits at most for the time that is left. Connections are
+ * also given connect and read timeouts, capped at the defaults when there is
+ * no deadline, so a stalled server cannot hold a start indefinitely.
+ */
+final class Deadline {
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    static final Deadline NONE = new Deadline(0, 0);
+
+    private final long timeoutMillis;
+    private final long expiresAt;
+
+    private Deadline(long timeoutMillis, long expiresAt) {
+        this.timeoutMillis = timeoutMillis;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Creates a deadline the given time from now
+     *
+     * @param timeout Time allowed, 0 or less for no deadline
+     * @param unit Unit of timeout
+     * @return the deadline
+     */
+    static Deadline after(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            return NONE;
+        }
+        return new Deadline(unit.toMillis(timeout), System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    boolean isBounded() {
+        return timeoutMillis > 0;
+    }
+
+    /**
+     * Returns the time left
+     *
+     * @return nanoseconds left, 0 once expired, Long.MAX_VALUE without a deadline
+     */
+    long remainingNanos() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, expiresAt - System.nanoTime());
+    }
+
+    boolean isExpired() {
+        return isBounded() && remainingNanos() == 0;
+    }
+
+    /**
+     * Fails if the deadline has passed, before a phase starts
+     *
+     * @param phase Phase about to start
+     * @throws LocalException if the deadline has passed
+     */
+    void check(LocalMetricsListener.Phase phase) throws LocalException {
+        if (isExpired()) {
+            throw expired(phase);
+        }
+    }
+
+    /**
+     * Creates the exception a start fails with when the deadline passes
+     *
+     * @param phase Phase that was running
+     * @return exception tagged with the phase
+     */
+    LocalException expired(LocalMetricsListener.Phase phase) {
+        return new LocalException("BrowserStackLocal did not start within " + timeoutMillis + " ms, timed out in "
+                + phase, phase);
+    }
+
+    /**
+     * Sets connect and read timeouts on a connection that end no later than
+     * the deadline
+     *
+     * @param connection Connection not yet connected
+     */
+    void apply(URLConnection connection) {
+        connection.setConnectTimeout(timeoutMillis(DEFAULT_CONNECT_TIMEOUT_MILLIS));
+        connection.setReadTimeout(timeoutMillis(DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+
+    private int timeoutMillis(int cap) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+        /* A timeout of 0 means infinite to URLConnection */
+        return (int) Math.max(1, Math.min(cap, remaining));
+    }
+}
@@ -0,0 +1,36 @@
+package com.browserstack.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Launches commands as operating system processes through {@link ProcessBuilder}.
+ */
+public class DefaultProcessLauncher implements ProcessLauncher {
+
+    static final DefaultProcessLauncher INSTANCE = new DefaultProcessLauncher();
+
+    public Local.LocalProcess launch(List<String> command) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        final Process process = processBuilder.start();
+
+        return new Local.LocalProcess() {
+            public InputStream getInputStream() {
+                return process.getInputStream();
+            }
+
+            public InputStream getErrorStream() {
+                return process.getErrorStream();
+            }
+
+            public int waitFor() throws Exception {
+                return process.waitFor();
+            }
+
+            public void destroy() {
+                process.destroyForcibly();
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package com.browserstack.local;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of the download endpoint returned by the endpoint API, kept
+ * next to the binary so a cold start can skip the lookup.
+ *
+ * An entry younger than the TTL is fresh. Up to the max-stale age it is still
+ * served, but callers are expected to refresh it in the background. Older
+ * entries, and entries written for another key, are ignored.
+ *
+ * An entry records whether the endpoint came from the fallback. A background
+ * refresh only asks for the primary endpoint, which has not served a binary
+ * yet, so it never replaces a fallback entry; a stale fallback entry is not
+ * served at all, and the next download decides between the endpoints again.
+ */
+final class EndpointCache {
+
+    static final String FILE_NAME = "BrowserStackLocal.endpoint";
+
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // Cache files with a background refresh in flight
+    private static final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final File file;
+    private final String keyHash;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+
+    EndpointCache(File directory, String key) {
+        this(directory, key, DEFAULT_TTL_MILLIS, DEFAULT_MAX_STALE_MILLIS);
+    }
+
+    EndpointCache(File directory, String key, long ttlMillis, long maxStaleMillis) {
+        this.file = new File(directory, FILE_NAME);
+        this.keyHash = BinaryDownloader.toHex(BinaryDownloader.newDigest().digest((key != null ? key : "").getBytes(StandardCharsets.UTF_8)));
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = Math.max(ttlMillis, maxStaleMillis);
+    }
+
+    /**
+     * Reads the cached endpoint
+     *
+     * @return cached endpoint, or null if there is no usable entry
+     */
+    Lookup lookup() {
+        JSONObject json = read();
+        if (json == null) {
+            return null;
+        }
+        try {
+            long age = System.currentTimeMillis() - json.getLong("fetchedAt");
+            boolean fallback = json.optBoolean("fallback");
+            if (age < 0 || age >= maxStaleMillis || (fallback && age >= ttlMillis)) {
+                return null;
+            }
+            return new Lookup(json.getString("endpoint"), age >= ttlMillis);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records a primary endpoint that was just resolved
+     *
+     * @param endpoint Download endpoint
+     */
+    void store(String endpoint) {
+        store(endpoint, false);
+    }
+
+    /**
+     * Records an endpoint that was just resolved. Failures are ignored, the
+     * cache only saves a lookup.
+     *
+     * @param endpoint Download endpoint
+     * @param fallback Whether the endpoint was requested as the fallback
+     */
+    void store(String endpoint, boolean fallback) {
+        JSONObject json = new JSONObject();
+        json.put("endpoint", endpoint);
+        json.put("fetchedAt", System.currentTimeMillis());
+        json.put("key", keyHash);
+        json.put("fallback", fallback);
+
+        try {
+            AtomicFiles.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Fetches the primary endpoint again in the background and stores the
+     * result, unless a refresh of this cache file is already running or the
+     * entry has meanwhile been replaced by a fallback one
+     *
+     * @param fetch Lookup of the primary endpoint against the endpoint API
+     */
+    void refreshAsync(final Callable<String> fetch) {
+        final String path = file.getAbsolutePath();
+        if (!refreshing.add(path)) {
+            return;
+        }
+        try {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    String endpoint = fetch.call();
+                    JSONObject current = read();
+                    if (current == null || !current.optBoolean("fallback")) {
+                        store(endpoint);
+                    }
+                } catch (Exception ignored) {
+                    /* Keep serving the stale entry, the next start retries */
+                } finally {
+                    refreshing.remove(path);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(path);
+        }
+    }
+
+    private JSONObject read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            return keyHash.equals(json.optString("key")) ? json : null;
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    static final class Lookup {
+        final String endpoint;
+        final boolean stale;
+
+        Lookup(String endpoint, boolean stale) {
+            this.endpoint = endpoint;
+            this.stale = stale;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.browserstack.local;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory stand-in for the BrowserStackLocal binary.
+ *
+ * Nothing is forked: "start" registers a fake daemon and answers with the
+ * daemon's JSON handshake, "stop" removes it and "--version" reports a valid
+ * version. Latencies and failures can be injected to exercise orchestration
+ * code at thousands of start/stop cycles per second.
+ *
+ * <pre>
+ * FakeDaemonLauncher daemon = new FakeDaemonLauncher().setStartLatency(50, TimeUnit.MILLISECONDS);
+ * Local local = new Local(daemon);
+ * local.start(options); // binarypath must name an existing file
+ * </pre>
+ */
+public class FakeDaemonLauncher implements ProcessLauncher {
+
+    private final AtomicInteger nextPid = new AtomicInteger(1000000);
+    private final AtomicInteger launches = new AtomicInteger();
+    private final ConcurrentMap<String, Integer> daemons = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, CompletableFuture<Void>> exits = new ConcurrentHashMap<Integer, CompletableFuture<Void>>();
+
+    private volatile long startLatencyNanos = 0;
+    private volatile long stopLatencyNanos = 0;
+    private volatile String failureMessage = null;
+
+    /**
+     * Delays the handshake of every start by the given time
+     *
+     * @param latency Handshake latency
+     * @param unit Unit of latency
+     * @return this launcher
+     */
+    public FakeDaemonLauncher setStartLatency(long latency, TimeUnit unit) {
+        startLatencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Delays every stop by the given time
+     *
+     * @param latency Stop latency
+     * @param unit Unit of latency
+     * @return this launcher
+     */
+    public FakeDaemonLauncher setStopLatency(long latency, TimeUnit unit) {
+        stopLatencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Makes every following start fail with the given message, as the daemon
+     * does for an invalid key
+     *
+     * @param message Failure message, or null to let starts succeed again
+     * @return this launcher
+     */
+    public FakeDaemonLauncher setFailure(String message) {
+        failureMessage = message;
+        return this;
+    }
+
+    /**
+     * Simulates the daemon with the given pid dying
+     *
+     * @param pid pid of the fake daemon
+     */
+    public void kill(int pid) {
+        daemons.values().remove(pid);
+        CompletableFuture<Void> exit = exits.remove(pid);
+        if (exit != null) {
+            exit.complete(null);
+        }
+    }
+
+    /**
+     * Returns the number of fake daemons currently running
+     *
+     * @return running daemons
+     */
+    public int getRunningCount() {
+        return daemons.size();
+    }
+
+    /**
+     * Returns the number of commands launched so far
+     *
+     * @return launched commands
+     */
+    public int getLaunchCount() {
+        return launches.get();
+    }
+
+    public Local.LocalProcess launch(List<String> command) throws IOException {
+        launches.incrementAndGet();
+
+        if (command.size() == 2 && "--version".equals(command.get(1))) {
+            return new FakeProcess("BrowserStack Local version 8.9\n", 0, 0);
+        }
+        if (command.size() < 3 || !"-d".equals(command.get(1))) {
+            return new FakeProcess("", 1, 0);
+        }
+
+        String instance = argument(command, "--key") + "/" + argument(command, "-localIdentifier");
+        if ("stop".equals(command.get(2))) {
+            Integer pid = daemons.get(instance);
+            if (pid != null) {
+                kill(pid);
+            }
+            return new FakeProcess("{\"state\":\"disconnected\",\"message\":{\"message\":\"BrowserStackLocal stopped successfully\"}}\n",
+                    0, stopLatencyNanos);
+        }
+
+        JSONObject handshake = new JSONObject();
+        synchronized (daemons) {
+            String failure = failureMessage;
+            Integer existing = daemons.get(instance);
+            if (failure == null && existing != null && !command.contains("-force")) {
+                failure = "Either another browserstack local client is running on your machine or some server is listening on port 45691";
+            }
+
+            if (failure != null) {
+                handshake.put("state", "disconnected");
+                handshake.put("message", new JSONObject().put("message", failure));
+            } else {
+                if (existing != null) {
+                    kill(existing);
+                }
+                int pid = nextPid.incrementAndGet();
+                exits.put(pid, new CompletableFuture<Void>());
+                daemons.put(instance, pid);
+                handshake.put("state", "connected");
+                handshake.put("pid", pid);
+                handshake.put("message", new JSONObject().put("message", "Connected"));
+            }
+        }
+        return new FakeProcess(handshake.toString() + "\n", 0, startLatencyNanos);
+    }
+
+    @Override
+    public boolean isAlive(int pid) {
+        return exits.containsKey(pid);
+    }
+
+    @Override
+    public CompletableFuture<Void> onExit(int pid) {
+        CompletableFuture<Void> exit = exits.get(pid);
+        return exit != null ? exit : CompletableFuture.<Void>completedFuture(null);
+    }
+
+    private static String argument(List<String> command, String name) {
+        int index = command.indexOf(name);
+        return index >= 0 && index + 1 < command.size() ? command.get(index + 1) : "";
+    }
+
+    private static final class FakeProcess implements Local.LocalProcess {
+        private final long readyAt;
+        private final int exitCode;
+        private final InputStream stdout;
+
+        FakeProcess(String output, int exitCode, long latencyNanos) {
+            this.readyAt = System.nanoTime() + latencyNanos;
+            this.exitCode = exitCode;
+            this.stdout = new DelayedInputStream(output.getBytes(StandardCharsets.UTF_8), readyAt);
+        }
+
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        public int waitFor() throws Exception {
+            sleepUntil(readyAt);
+            return exitCode;
+        }
+    }
+
+    private static final class DelayedInputStream extends ByteArrayInputStream {
+        private final long readyAt;
+
+        DelayedInputStream(byte[] bytes, long readyAt) {
+            super(bytes);
+            this.readyAt = readyAt;
+        }
+
+        @Override
+        public synchronized int read() {
+            awaitReady();
+            return super.read();
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            awaitReady();
+            return super.read(b, off, len);
+        }
+
+        private void awaitReady() {
+            try {
+                sleepUntil(readyAt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void sleepUntil(long readyAt) throws InterruptedException {
+        long remaining = readyAt - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
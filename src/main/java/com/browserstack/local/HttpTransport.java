@@ -0,0 +1,87 @@
+package com.browserstack.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Opens the HTTP connections for the endpoint lookup, the binary download and
+ * the update check, so that they share connections where they can.
+ *
+ * The JDK keeps idle HTTP/1.1 sockets, and TLS sessions, per host and reuses
+ * them for the next request, but only for a connection whose response body
+ * was read to the end and closed. Every response therefore goes through
+ * {@link #release(URLConnection)}, including error responses whose body is
+ * otherwise never read, so the download after an endpoint lookup, the next
+ * segment or retry, and a fallback attempt skip the TCP and TLS handshakes.
+ */
+final class HttpTransport {
+
+    // Error bodies larger than this are not worth reading to keep the socket
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final String USER_AGENT = "browserstack-local-java/" + Local.getPackageVersion();
+
+    private HttpTransport() {
+    }
+
+    /**
+     * Opens a connection with the binding's User-Agent and timeouts ending no
+     * later than the deadline
+     *
+     * @param url URL to request
+     * @param deadline Time by which the request has to be done
+     * @return connection, not yet connected
+     * @throws IOException if the connection cannot be opened
+     */
+    static URLConnection open(URL url, Deadline deadline) throws IOException {
+        URLConnection conn = url.openConnection();
+        deadline.apply(conn);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("User-Agent", USER_AGENT);
+        return conn;
+    }
+
+    /**
+     * Reads what is left of a response that will not be used, so its socket
+     * can be reused instead of being closed
+     *
+     * @param conn Connection whose response code has been read
+     */
+    static void release(URLConnection conn) {
+        if (!(conn instanceof HttpURLConnection)) {
+            return;
+        }
+        HttpURLConnection http = (HttpURLConnection) conn;
+        /* A HEAD response has no body, whatever length it announces */
+        long length = "HEAD".equals(http.getRequestMethod()) ? 0 : http.getContentLengthLong();
+        if (length > MAX_DRAIN_BYTES) {
+            http.disconnect();
+            return;
+        }
+
+        InputStream body = http.getErrorStream();
+        try {
+            if (body == null) {
+                body = http.getInputStream();
+            }
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            int n;
+            while (drained <= MAX_DRAIN_BYTES && (n = body.read(buffer)) != -1) {
+                drained += n;
+            }
+        } catch (IOException ignored) {
+            /* The socket is closed instead of reused */
+        } finally {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.browserstack.local;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.json.*;
 
 /**
@@ -13,36 +15,58 @@ import org.json.*;
  */
 public class Local {
 
-    private static final List<String> IGNORE_KEYS = Arrays.asList("key", "binarypath");
-
     List<String> command;
-    Map<String, String> startOptions;
+    LocalOptions startOptions;
     String binaryPath;
-    int pid = 0;
+    volatile int pid = 0;
+
+    // Set once stop is called, so a TunnelMonitor can tell a requested stop from a crash
+    volatile boolean stopRequested = false;
 
     private LocalProcess proc = null;
 
+    // Host-wide daemon this instance is attached to, if started with shareDaemon
+    private SharedDaemon shared = null;
+
+    private Executor executor;
+
+    private volatile LocalMetricsListener metrics = LocalMetricsListener.NONE;
+
+    // Tail of the chain of asynchronous operations, so they run in call order
+    private CompletableFuture<?> pending = CompletableFuture.completedFuture(null);
+
     // Current version of binding package, used for --source option of binary
     private static final String packageVersion = "1.1.7";
-    private final Map<String, String> parameters;
-    private final Map<String, String> avoidValueParameters;
+
+    private final ProcessLauncher launcher;
+
+    // Where shared daemons are recorded, see SharedDaemon
+    private final File sharedDaemonDirectory;
+
+    // Where pinned versions are taken from, see BinaryStore
+    private final BinaryStore store;
 
     public Local() {
-        avoidValueParameters = new HashMap<String, String>();
-        avoidValueParameters.put("v", "-vvv");
-        avoidValueParameters.put("force", "-force");
-        avoidValueParameters.put("forcelocal", "-forcelocal");
-        avoidValueParameters.put("onlyAutomate", "-onlyAutomate");
-        avoidValueParameters.put("forceproxy", "-forceproxy");
+        this(DefaultProcessLauncher.INSTANCE);
+    }
 
-        parameters = new HashMap<String, String>();
-        parameters.put("f", "-f");
-        parameters.put("only", "-only");
-        parameters.put("localIdentifier", "-localIdentifier");
-        parameters.put("proxyHost", "-proxyHost");
-        parameters.put("proxyPort", "-proxyPort");
-        parameters.put("proxyUser", "-proxyUser");
-        parameters.put("proxyPass", "-proxyPass");
+    /**
+     * Creates a Local instance that runs its commands through the given launcher
+     *
+     * @param launcher Launcher for the daemon and binary check processes
+     */
+    public Local(ProcessLauncher launcher) {
+        this(launcher, SharedDaemon.DEFAULT_DIRECTORY);
+    }
+
+    Local(ProcessLauncher launcher, File sharedDaemonDirectory) {
+        this(launcher, sharedDaemonDirectory, new BinaryStore(BinaryStore.DEFAULT_DIRECTORY, BinaryStore.DEFAULT_MAX_BYTES));
+    }
+
+    Local(ProcessLauncher launcher, File sharedDaemonDirectory, BinaryStore store) {
+        this.launcher = launcher;
+        this.sharedDaemonDirectory = sharedDaemonDirectory;
+        this.store = store;
     }
 
     /**
@@ -52,39 +76,97 @@ public class Local {
      * @throws Exception
      */
     public void start(Map<String, String> options) throws Exception {
+        start(toOptions(options));
+    }
+
+    /**
+     * Starts Local instance with options
+     *
+     * @param options Options for the Local instance
+     * @throws Exception
+     */
+    public void start(LocalOptions options) throws Exception {
+        stopRequested = false;
+        startDaemon(options);
+    }
+
+    /**
+     * Starts the daemon without clearing a requested stop, so a restart that
+     * races a stop cannot undo it
+     */
+    private void startDaemon(LocalOptions options) throws Exception {
         startOptions = options;
-        LocalBinary lb;
-        if (options.get("binarypath") != null) {
-            lb = new LocalBinary(options.get("binarypath"), options.get("key"));
-        } else {
-            lb = new LocalBinary("", options.get("key"));
-        }
-        binaryPath = lb.getBinaryPath();
+        final Deadline deadline = Deadline.after(options.getStartTimeoutMillis(), TimeUnit.MILLISECONDS);
+        binaryPath = resolveBinary(options, deadline).getBinaryPath();
 
-        makeCommand(options, "start");
+        command = options.command(binaryPath, "start");
 
-        if (options.get("onlyCommand") != null) return;
+        if (options.isOnlyCommand()) return;
 
-        if (proc == null) {
-            proc = runCommand(command);
-            BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            BufferedReader stderrbr = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-            String stdout="", stderr="", line;
-            while ((line = stdoutbr.readLine()) != null) {
-                stdout += line;
-            }
-            while ((line = stderrbr.readLine()) != null) {
-                stderr += line;
+        if (pid == 0) {
+            if (options.isShareDaemon()) {
+                SharedDaemon daemon = new SharedDaemon(sharedDaemonDirectory, options.getArguments(), launcher);
+                pid = daemon.attach(() -> spawnDaemon(deadline), deadline);
+                shared = daemon;
+            } else {
+                pid = spawnDaemon(deadline);
             }
-            int r = proc.waitFor();
+            BinaryUpdater.recordDaemon(new File(binaryPath), pid);
+            store.recordDaemon(new File(binaryPath), pid);
+            LocalRegistry.register(this);
+        }
+    }
+
+    /**
+     * Runs the start command and waits for the daemon's handshake
+     *
+     * @param deadline Time by which the daemon has to connect
+     * @return pid of the daemon
+     */
+    private int spawnDaemon(Deadline deadline) throws Exception {
+        deadline.check(LocalMetricsListener.Phase.HANDSHAKE);
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            proc = runCommand(command);
+            ProcessOutput output = ProcessOutput.capture(proc.getInputStream(), proc.getErrorStream());
 
-            JSONObject obj = new JSONObject(!stdout.equals("") ? stdout : stderr);
+            JSONObject obj;
+            try {
+                obj = output.awaitState(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                reap(proc);
+                throw deadline.expired(LocalMetricsListener.Phase.HANDSHAKE);
+            }
             if(!obj.getString("state").equals("connected")){
                 throw new LocalException(obj.getJSONObject("message").getString("message"));
             }
-            else {
-                pid = obj.getInt("pid");
-            }
+            succeeded = true;
+            return obj.getInt("pid");
+        } finally {
+            metrics.onPhase(LocalMetricsListener.Phase.HANDSHAKE, System.nanoTime() - started, succeeded);
+        }
+    }
+
+    /**
+     * Kills a start command that did not answer in time and, in the
+     * background, stops the daemon in case it came up anyway
+     *
+     * @param starting Start command process
+     */
+    private void reap(LocalProcess starting) {
+        starting.destroy();
+        final List<String> stopCommand = startOptions.command(binaryPath, "stop");
+        try {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    runCommand(stopCommand).waitFor();
+                } catch (Exception ignored) {
+                    /* Nothing was running */
+                }
+            });
+        } catch (RuntimeException ignored) {
+            /* The executor is shutting down along with the JVM */
         }
     }
 
@@ -94,11 +176,22 @@ public class Local {
      * @throws InterruptedException
      */
     public void stop() throws Exception {
+        stopRequested = true;
         if (pid != 0) {
-            makeCommand(startOptions, "stop");
-            proc = runCommand(command);
-            proc.waitFor();
-            pid = 0;
+            command = startOptions.command(binaryPath, "stop");
+            if (shared != null) {
+                /* Other instances may still be using the daemon, only the last one stops it */
+                SharedDaemon daemon = shared;
+                shared = null;
+                pid = 0;
+                daemon.detach(() -> {
+                    runStop();
+                    return null;
+                });
+                LocalRegistry.unregister(this);
+            } else {
+                runStop();
+            }
         }
     }
 
@@ -107,17 +200,171 @@ public class Local {
     * @param options Options supplied for the Local instance
     **/
     public void stop(Map<String, String> options) throws Exception {
-        LocalBinary lb;
-        if (options.get("binarypath") != null) {
-            lb = new LocalBinary(options.get("binarypath"), options.get("key"));
-        } else {
-            lb = new LocalBinary("", options.get("key"));
+        stop(toOptions(options));
+    }
+
+    /**
+    * Stops the Local instance specified by the given identifier
+    * @param options Options supplied for the Local instance
+    **/
+    public void stop(LocalOptions options) throws Exception {
+        stopRequested = true;
+        binaryPath = resolveBinary(options).getBinaryPath();
+        command = options.command(binaryPath, "stop");
+        runStop();
+    }
+
+    /**
+     * Stops every Local instance of this JVM whose daemon is still running,
+     * in parallel
+     *
+     * @param timeout Time to wait for all of them to stop
+     * @param unit Unit of timeout
+     * @return true if every instance stopped in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static boolean stopAll(long timeout, TimeUnit unit) throws InterruptedException {
+        return LocalRegistry.stopAll(timeout, unit);
+    }
+
+    /**
+     * Stops every Local instance still running when the JVM exits, so a
+     * killed build does not leave daemons behind for the next one to collide
+     * with. Calling this more than once has no further effect.
+     */
+    public static void stopAllOnShutdown() {
+        LocalRegistry.installShutdownHook();
+    }
+
+    /**
+     * Starts the daemon again with the options it was last started with,
+     * stopping it first if the given pid is still running
+     *
+     * @param lostPid pid of the daemon being replaced
+     * @return false if a stop was requested, in which case the daemon is left stopped
+     */
+    boolean restart(int lostPid) throws Exception {
+        if (stopRequested) {
+            return false;
+        }
+        if (lostPid != 0 && pid == lostPid && launcher.isAlive(lostPid)) {
+            command = startOptions.command(binaryPath, "stop");
+            runStop();
         }
-        binaryPath = lb.getBinaryPath();
-        makeCommand(options, "stop");
-        proc = runCommand(command);
-        proc.waitFor();
         pid = 0;
+        if (shared != null) {
+            /* Drop the stale holder, attaching again finds or spawns the daemon */
+            SharedDaemon previous = shared;
+            shared = null;
+            previous.detach(() -> null);
+        }
+        if (stopRequested) {
+            return false;
+        }
+        startDaemon(startOptions);
+        if (stopRequested) {
+            /* stop() ran while the daemon was starting and found nothing to stop */
+            stop();
+            return false;
+        }
+        return true;
+    }
+
+    private void runStop() throws Exception {
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            proc = runCommand(command);
+            proc.waitFor();
+            pid = 0;
+            LocalRegistry.unregister(this);
+            succeeded = true;
+        } finally {
+            metrics.onPhase(LocalMetricsListener.Phase.STOP, System.nanoTime() - started, succeeded);
+        }
+    }
+
+    /**
+     * Starts Local instance with options without blocking the caller
+     *
+     * Asynchronous operations on one instance run one after the other, in the
+     * order they were requested.
+     *
+     * @param options Options for the Local instance
+     * @return future completed with the started tunnel, or exceptionally if it failed to start
+     */
+    public CompletableFuture<TunnelInfo> startAsync(final Map<String, String> options) {
+        return enqueue(() -> {
+            start(options);
+            return new TunnelInfo(pid, startOptions.getLocalIdentifier(), binaryPath);
+        });
+    }
+
+    /**
+     * Starts Local instance with options without blocking the caller
+     *
+     * @param options Options for the Local instance
+     * @return future completed with the started tunnel, or exceptionally if it failed to start
+     */
+    public CompletableFuture<TunnelInfo> startAsync(final LocalOptions options) {
+        return enqueue(() -> {
+            start(options);
+            return new TunnelInfo(pid, options.getLocalIdentifier(), binaryPath);
+        });
+    }
+
+    /**
+     * Stops the Local instance without blocking the caller
+     *
+     * @return future completed once the instance has stopped
+     */
+    public CompletableFuture<Void> stopAsync() {
+        return enqueue(() -> {
+            stop();
+            return null;
+        });
+    }
+
+    /**
+     * Sets the executor asynchronous operations run on. By default they run on
+     * virtual threads where the runtime supports them, otherwise on a shared
+     * pool of daemon threads.
+     *
+     * @param executor Executor for {@link #startAsync(Map)} and {@link #stopAsync()}, or null for the default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the listener that receives timings for each phase of starting and
+     * stopping this instance, such as the binary download and the daemon
+     * handshake.
+     *
+     * @param metrics Listener, or null to stop recording
+     */
+    public void setMetricsListener(LocalMetricsListener metrics) {
+        this.metrics = metrics != null ? metrics : LocalMetricsListener.NONE;
+    }
+
+    private synchronized <T> CompletableFuture<T> enqueue(final Callable<T> task) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final Executor target = executor != null ? executor : LocalExecutors.defaultExecutor();
+        pending.whenComplete((previous, failure) -> {
+            try {
+                target.execute(() -> {
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        pending = result;
+        return result;
     }
 
     /**
@@ -130,6 +377,31 @@ public class Local {
         return isProcessRunning(pid);
     }
 
+    /**
+     * Returns a future completed once the running Local instance exits, so
+     * callers can react to a lost tunnel instead of polling {@link #isRunning()}
+     *
+     * @return future completed when the daemon process is gone, already complete if none is running
+     */
+    public CompletableFuture<Void> onExit() {
+        final int current = pid;
+        if (current == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return launcher.onExit(current);
+    }
+
+    /**
+     * Follows the log file of this instance, the one set with the "logFile"
+     * option or local.log in the working directory, from its current end
+     *
+     * @return tail of the log, to be closed when no longer needed
+     */
+    public LogTail tailLog() {
+        String logFile = startOptions != null ? startOptions.getModifiers().get("logFile") : null;
+        return new LogTail(logFile != null ? new File(logFile) : new File(System.getProperty("user.dir"), "local.log"));
+    }
+
     /**
      * Returns the package version
      *
@@ -140,37 +412,30 @@ public class Local {
     }
 
     /**
-     * Creates a list of command-line arguments for the Local instance
+     * Locates, downloading if needed, the binary for the given options
      *
      * @param options Options supplied for the Local instance
+     * @return validated binary
      */
-    private void makeCommand(Map<String, String> options, String opCode) {
-        command = new ArrayList<String>();
-        command.add(binaryPath);
-        command.add("-d");
-        command.add(opCode);
-        command.add("--key");
-        command.add(options.get("key"));
-        command.add("--source");
-        command.add("java-" + packageVersion);
-
-        for (Map.Entry<String, String> opt : options.entrySet()) {
-            String parameter = opt.getKey().trim();
-            if (IGNORE_KEYS.contains(parameter)) {
-                continue;
-            }
-            if (avoidValueParameters.get(parameter) != null && opt.getValue().trim().toLowerCase() != "false") {
-                command.add(avoidValueParameters.get(parameter));
-            } else {
-                if (parameters.get(parameter) != null) {
-                    command.add(parameters.get(parameter));
-                } else {
-                    command.add("-" + parameter);
-                }
-                if (opt.getValue() != null) {
-                    command.add(opt.getValue().trim());
-                }
-            }
+    LocalBinary resolveBinary(LocalOptions options) throws LocalException {
+        return resolveBinary(options, Deadline.after(options.getStartTimeoutMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    private LocalBinary resolveBinary(LocalOptions options, Deadline deadline) throws LocalException {
+        return new LocalBinary(options, launcher, metrics, deadline, store);
+    }
+
+    /**
+     * Converts an options map, reporting invalid values as a {@link LocalException}
+     *
+     * @param options Options supplied for the Local instance
+     * @return validated options
+     */
+    static LocalOptions toOptions(Map<String, String> options) throws LocalException {
+        try {
+            return LocalOptions.fromMap(options);
+        } catch (IllegalArgumentException e) {
+            throw new LocalException(e.getMessage());
         }
     }
 
@@ -178,35 +443,9 @@ public class Local {
      * Checks if process with pid is running
      *
      * @param pid pid for the process to be checked.
-     * @link http://stackoverflow.com/a/26423642/941691
      */
     private boolean isProcessRunning(int pid) throws Exception {
-        ArrayList<String> cmd = new ArrayList<String>();
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            //tasklist exit code is always 0. Parse output
-            //findstr exit code 0 if found pid, 1 if it doesn't
-            cmd.add("cmd");
-            cmd.add("/c");
-            cmd.add("\"tasklist /FI \"PID eq " + pid + "\" | findstr " + pid + "\"");
-        }
-        else {
-            //ps exit code 0 if process exists, 1 if it doesn't
-            cmd.add("/bin/sh");
-            cmd.add("-c");
-            cmd.add("ps");
-            cmd.add("-o");
-            cmd.add("pid=");
-            cmd.add("|");
-            cmd.add("grep");
-            cmd.add("-w");
-            cmd.add(String.valueOf(pid));
-        }
-
-        proc = runCommand(cmd);
-        int exitValue = proc.waitFor();
-
-        // 0 is the default exit code which means the process exists
-        return exitValue == 0;
+        return launcher.isAlive(pid);
     }
 
     /**
@@ -215,24 +454,11 @@ public class Local {
      * @param command Command to be executed on the shell.
      * @return {@link LocalProcess} for managing the launched process.
      * @throws IOException
+     * @deprecated Pass a {@link ProcessLauncher} to {@link #Local(ProcessLauncher)} instead of overriding this method
      */
+    @Deprecated
     protected LocalProcess runCommand(List<String> command) throws IOException {
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        final Process process = processBuilder.start();
-
-        return new LocalProcess() {
-            public InputStream getInputStream() {
-                return process.getInputStream();
-            }
-
-            public InputStream getErrorStream() {
-                return process.getErrorStream();
-            }
-
-            public int waitFor() throws Exception {
-                return process.waitFor();
-            }
-        };
+        return launcher.launch(command);
     }
 
     public interface LocalProcess {
@@ -241,5 +467,11 @@ public class Local {
         InputStream getErrorStream();
 
         int waitFor() throws Exception;
+
+        /**
+         * Kills the process, used when it does not answer in time
+         */
+        default void destroy() {
+        }
     }
 }
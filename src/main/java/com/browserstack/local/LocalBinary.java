@@ -1,8 +1,5 @@
 package com.browserstack.local;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-
 import org.json.JSONObject;
 
 import java.io.IOException;
@@ -11,21 +8,37 @@ import java.io.OutputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipException;
 
 import java.lang.StringBuilder;
 
-class LocalBinary {
+/**
+ * Locates, downloads and validates the BrowserStackLocal binary.
+ *
+ * {@link Local} does this as part of every start. {@link #prefetch(LocalOptions)}
+ * and {@link #main(String[])} let a build do it ahead of time, so the first
+ * start of a test run finds a validated binary.
+ */
+public class LocalBinary {
 
-    private String binaryFileName;
+    // Platform specific binary name, resolved once per JVM
+    private static volatile String cachedBinaryFileName;
 
     private String sourceUrl;
 
+    // Whether sourceUrl came from the on-disk endpoint cache rather than the endpoint API
+    private boolean sourceUrlCached = false;
+
+    // Where getBinary downloads to, binaryPath may instead name an updated binary
+    private String defaultBinaryPath;
+
     private String binaryPath;
 
     private Boolean fallbackEnabled = false;
@@ -42,71 +55,139 @@ class LocalBinary {
             System.getProperty("java.io.tmpdir")
     };
 
+    private int downloadConnections = 1;
+
+    private final ProcessLauncher launcher;
+
+    private final LocalMetricsListener metrics;
+
+    private final boolean autoUpdate;
+
+    private final Deadline deadline;
+
+    // Version to take from the binary store instead of downloading, null for the latest
+    private final String pinnedVersion;
+
+    private final BinaryStore store;
+
+    // SHA-256 of the binary this instance downloaded to the default location, which then goes into the store
+    private String downloadedSha256;
+
+    // Version the binary reported when it was last checked
+    private String binaryVersion;
+
     LocalBinary(String path, String key) throws LocalException {
-        this.key = key;
+        this(LocalOptions.builder().key(key).binaryPath(path.isEmpty() ? null : path).build(),
+                DefaultProcessLauncher.INSTANCE, LocalMetricsListener.NONE, Deadline.NONE);
+    }
+
+    /**
+     * Locates the binary for the given options, bounded by their startTimeout
+     *
+     * @param options Options of the Local instance
+     * @param launcher Launcher for the binary check process
+     * @param metrics Listener for the phases of the lookup
+     * @throws LocalException if no working binary can be found or downloaded
+     */
+    LocalBinary(LocalOptions options, ProcessLauncher launcher, LocalMetricsListener metrics) throws LocalException {
+        this(options, launcher, metrics, Deadline.after(options.getStartTimeoutMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Locates the binary for the given options as part of a start
+     *
+     * @param options Options of the Local instance
+     * @param launcher Launcher for the binary check process
+     * @param metrics Listener for the phases of the lookup
+     * @param deadline Time by which the whole start has to be done
+     * @throws LocalException if no working binary can be found or downloaded
+     */
+    LocalBinary(LocalOptions options, ProcessLauncher launcher, LocalMetricsListener metrics,
+                Deadline deadline) throws LocalException {
+        this(options, launcher, metrics, deadline,
+                new BinaryStore(BinaryStore.DEFAULT_DIRECTORY, BinaryStore.DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Locates the binary for the given options as part of a start
+     *
+     * @param options Options of the Local instance
+     * @param launcher Launcher for the binary check process
+     * @param metrics Listener for the phases of the lookup
+     * @param deadline Time by which the whole start has to be done
+     * @param store Store pinned versions are taken from and downloads are kept in
+     * @throws LocalException if no working binary can be found or downloaded
+     */
+    LocalBinary(LocalOptions options, ProcessLauncher launcher, LocalMetricsListener metrics,
+                Deadline deadline, BinaryStore store) throws LocalException {
+        this.store = store;
+        this.key = options.getKey();
+        this.deadline = deadline;
+        this.pinnedVersion = options.getBinaryVersion();
+        this.launcher = launcher;
+        this.metrics = metrics;
+        this.autoUpdate = options.isBinaryAutoUpdate();
+        this.downloadConnections = Math.max(1, options.getParallelDownloads());
         initialize();
-        downloadAndVerifyBinary(path);
+        downloadAndVerifyBinary(options.getBinaryPath() != null ? options.getBinaryPath() : "");
     }
 
     private void downloadAndVerifyBinary(String path) throws LocalException {
+        if (path.isEmpty() && pinnedVersion != null) {
+            getPinnedBinary();
+            return;
+        }
         try {
-            if (path != "") {
+            if (!path.isEmpty()) {
                 getBinaryOnPath(path);
             } else {
                 getBinary();
             }
             checkBinary();
+            if (downloadedSha256 != null) {
+                storeBinary(downloadedSha256);
+            }
+            if (autoUpdate && path.isEmpty()) {
+                scheduleUpdateCheck();
+            }
         } catch (Throwable e) {
-            if (fallbackEnabled) throw e;
+            if (fallbackEnabled || deadline.isExpired()) throw e;
             File binary_file = new File(binaryPath);
             if (binary_file.exists()) {
               binary_file.delete();
             }
+            BinaryCache.invalidate(binaryPath);
+            metrics.onFallback(e);
             fallbackEnabled = true;
             downloadFailureThrowable = e;
             downloadAndVerifyBinary(path);
         }
     }
 
-    private void initialize() throws LocalException {
+    private void initialize() {
         String osname = System.getProperty("os.name").toLowerCase();
         isOSWindows = osname.contains("windows");
-        String binFileName;
-
-        if (isOSWindows) {
-            binFileName = "BrowserStackLocal.exe";
-        } else if (osname.contains("mac") || osname.contains("darwin")) {
-            binFileName = "BrowserStackLocal-darwin-x64";
-        } else if (osname.contains("linux")) {
-            String arch = System.getProperty("os.arch");
-            if (arch.contains("64")) {
-                if (isAlpine()) {
-                    binFileName = "BrowserStackLocal-alpine";
-                } else {
-                    binFileName = "BrowserStackLocal-linux-x64";
-                }
-            } else {
-                binFileName = "BrowserStackLocal-linux-ia32";
-            }
-        } else {
-            throw new LocalException("Failed to detect OS type");
-        }
-
-        this.binaryFileName = binFileName;
     }
 
-    private boolean isAlpine() {
-        String[] cmd = { "/bin/sh", "-c", "grep -w \"NAME\" /etc/os-release" };
-        boolean flag = false;
+    /**
+     * Returns the name of the binary to download for this platform. It is
+     * only needed for a download, so a binary on a given path keeps working on
+     * platforms no binary is published for.
+     */
+    private String binaryFileName() throws LocalException {
+        if (cachedBinaryFileName != null) {
+            return cachedBinaryFileName;
+        }
 
+        long started = System.nanoTime();
+        boolean succeeded = false;
         try {
-            Process os = Runtime.getRuntime().exec(cmd);
-            BufferedReader stdout = new BufferedReader(new InputStreamReader(os.getInputStream()));
-
-            flag = stdout.readLine().contains("Alpine");
+            cachedBinaryFileName = Platform.detect().getBinaryFileName();
+            succeeded = true;
         } finally {
-            return flag;
+            metrics.onPhase(LocalMetricsListener.Phase.PLATFORM_DETECT, System.nanoTime() - started, succeeded);
         }
+        return cachedBinaryFileName;
     }
 
     private void checkBinary() throws LocalException{
@@ -117,6 +198,7 @@ class LocalBinary {
             if (binary_file.exists()) {
                 binary_file.delete();
             }
+            BinaryCache.invalidate(binaryPath);
             getBinary();
             if(!validateBinary()){
                 throw new LocalException("BrowserStackLocal binary is corrupt");
@@ -125,27 +207,91 @@ class LocalBinary {
     }
 
     private boolean validateBinary() throws LocalException{
-        Process process;
-        try {
-
-            process = new ProcessBuilder(binaryPath,"--version").start();
+        synchronized (BinaryCache.lockFor(binaryPath)) {
+            if (BinaryCache.isValidated(binaryPath)) {
+                return true;
+            }
 
-            BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String stdout="",line="";
+            boolean validBinary = runVersionCheck();
+            if (validBinary) {
+                BinaryCache.markValidated(binaryPath);
+            }
+            return validBinary;
+        }
+    }
 
-            while ((line = stdoutbr.readLine()) != null) {
-                stdout += line;
+    private boolean runVersionCheck() throws LocalException{
+        deadline.check(LocalMetricsListener.Phase.VALIDATE);
+        long started = System.nanoTime();
+        boolean validBinary = false;
+        try {
+            Local.LocalProcess process = launcher.launch(Arrays.asList(binaryPath, "--version"));
+
+            String stdout;
+            try {
+                stdout = ProcessOutput.capture(process.getInputStream(), process.getErrorStream())
+                        .awaitStdout(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                process.destroy();
+                throw deadline.expired(LocalMetricsListener.Phase.VALIDATE);
             }
             process.waitFor();
 
-            boolean validBinary = Pattern.matches("BrowserStack Local version \\d+\\.\\d+", stdout);
+            validBinary = Pattern.matches("BrowserStack Local version \\d+\\.\\d+", stdout);
+            if (validBinary) {
+                binaryVersion = stdout.substring(stdout.lastIndexOf(' ') + 1);
+            }
 
             return validBinary;
-        }catch(IOException ex){
+        }catch(LocalException ex){
+            throw ex;
+        }catch(Exception ex){
             throw new LocalException(ex.toString());
+        } finally {
+            metrics.onPhase(LocalMetricsListener.Phase.VALIDATE, System.nanoTime() - started, validBinary);
         }
-        catch(InterruptedException ex){
-            throw new LocalException(ex.toString());
+    }
+
+    /**
+     * Takes the pinned version from the binary store. A pinned version is
+     * never downloaded, since the endpoint only serves the latest binary.
+     */
+    private void getPinnedBinary() throws LocalException {
+        File stored = store.lookup(binaryFileName(), pinnedVersion);
+        if (stored == null) {
+            throw new LocalException("BrowserStackLocal version " + pinnedVersion + " is not in the binary store "
+                    + store.getDirectory());
+        }
+        binaryPath = stored.getPath();
+        if (!validateBinary()) {
+            BinaryCache.invalidate(binaryPath);
+            store.remove(stored);
+            throw new LocalException("Stored BrowserStackLocal version " + pinnedVersion + " is corrupt");
+        }
+    }
+
+    /**
+     * Keeps a newly downloaded binary in the binary store, so the version can
+     * be pinned later on. Linking or copying it is left to the background, off
+     * the start. Binaries on a user supplied binarypath are not stored.
+     */
+    private void storeBinary(final String sha256) {
+        if (binaryVersion == null) {
+            return;
+        }
+        final File binary = new File(binaryPath);
+        final String version = binaryVersion;
+        try {
+            final String platform = binaryFileName();
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    store.put(binary, sha256, platform, version);
+                } catch (IOException ignored) {
+                    /* The binary works, it just cannot be pinned later */
+                }
+            });
+        } catch (LocalException | RuntimeException ignored) {
+            /* Same as above, or the executor is shutting down along with the JVM */
         }
     }
 
@@ -165,11 +311,35 @@ class LocalBinary {
             binaryPath += ".exe";
         }
 
+        defaultBinaryPath = binaryPath;
+        if (autoUpdate) {
+            File updated = updater(destParentDir).current();
+            if (updated != null) {
+                binaryPath = updated.getPath();
+            }
+        }
+
         if (!new File(binaryPath).exists()) {
             downloadBinary(destParentDir, false);
         }
     }
 
+    private BinaryUpdater updater(String directory) {
+        return new BinaryUpdater(new File(directory), isOSWindows ? "BrowserStackLocal.exe" : "BrowserStackLocal", launcher);
+    }
+
+    /**
+     * Looks for a newer binary in the background, to be used from the next start on
+     */
+    private void scheduleUpdateCheck() {
+        final String directory = new File(defaultBinaryPath).getAbsoluteFile().getParent();
+        updater(directory).checkAsync(new File(binaryPath), () -> {
+            EndpointCache.Lookup cached = new EndpointCache(new File(directory), key).lookup();
+            String endpoint = cached != null ? cached.endpoint : requestSourceUrl(null, Deadline.NONE);
+            return new URL(endpoint + '/' + binaryFileName());
+        });
+    }
+
     private String getAvailableDirectory() throws LocalException {
         int i = 0;
         while (i < orderedPaths.length) {
@@ -193,58 +363,90 @@ class LocalBinary {
         }
     }
 
-    private void fetchSourceUrl() throws LocalException {
+    private void fetchSourceUrl(EndpointCache cache) throws LocalException {
         if ((!fallbackEnabled && sourceUrl != null) || (fallbackEnabled && downloadFailureThrowable == null)) {
             /* Retry because binary (from any of the endpoints) validation failed */
             return;
         }
 
+        if (!fallbackEnabled) {
+            EndpointCache.Lookup cached = cache.lookup();
+            if (cached != null) {
+                this.sourceUrl = cached.endpoint;
+                this.sourceUrlCached = true;
+                if (cached.stale) {
+                    cache.refreshAsync(() -> requestSourceUrl(null, Deadline.NONE));
+                }
+                return;
+            }
+        }
+
+        deadline.check(LocalMetricsListener.Phase.FETCH_SOURCE_URL);
+        long started = System.nanoTime();
+        boolean succeeded = false;
         try {
-          URL url = new URL("https://local.browserstack.com/binary/api/v1/endpoint");
-          URLConnection connection = url.openConnection();
-          
-          connection.setDoOutput(true);
-          connection.setRequestProperty("Content-Type", "application/json");
-          connection.setRequestProperty("User-Agent", "browserstack-local-java/" + Local.getPackageVersion());
-          connection.setRequestProperty("Accept", "application/json");
-
-          JSONObject inputParams = new JSONObject();
-          inputParams.put("auth_token", this.key);
-          if (fallbackEnabled) {
-              connection.setRequestProperty("X-Local-Fallback-Cloudflare", "true");
-              inputParams.put("error_message", downloadFailureThrowable.getMessage());
-          }
-          String jsonInputParams = inputParams.toString();
-
-          try (OutputStream os = connection.getOutputStream()) {
-              byte[] input = jsonInputParams.getBytes("utf-8");
-              os.write(input, 0, input.length);
-          }
-
-          try (InputStream is = connection.getInputStream();
-              BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"))) {
-              StringBuilder response = new StringBuilder();
-              String line;
-              while ((line = reader.readLine()) != null) {
-                  response.append(line.trim());
-              }
-              String responseBody = response.toString();
-              JSONObject json = new JSONObject(responseBody);
-              if (json.has("error")) {
-                throw new Exception(json.getString("error"));
-              }
-              this.sourceUrl = json.getJSONObject("data").getString("endpoint");
-              if(fallbackEnabled) downloadFailureThrowable = null;
-          }
+          this.sourceUrl = requestSourceUrl(fallbackEnabled ? downloadFailureThrowable : null, deadline);
+          this.sourceUrlCached = false;
+          if(fallbackEnabled) downloadFailureThrowable = null;
+          succeeded = true;
         } catch (Throwable e) {
+          if (deadline.isExpired()) throw deadline.expired(LocalMetricsListener.Phase.FETCH_SOURCE_URL);
           throw new LocalException("Error trying to fetch the source URL: " + e.getMessage());
+        } finally {
+          metrics.onPhase(LocalMetricsListener.Phase.FETCH_SOURCE_URL, System.nanoTime() - started, succeeded);
+        }
+    }
+
+    /**
+     * Asks the endpoint API where to download the binary from
+     *
+     * @param fallbackCause Failure of the primary endpoint to report, or null for the primary endpoint
+     * @param deadline Time by which the endpoint has to answer
+     * @return download endpoint
+     */
+    private String requestSourceUrl(Throwable fallbackCause, Deadline deadline) throws Exception {
+        URL url = new URL("https://local.browserstack.com/binary/api/v1/endpoint");
+        URLConnection connection = HttpTransport.open(url, deadline);
+
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+
+        JSONObject inputParams = new JSONObject();
+        inputParams.put("auth_token", this.key);
+        if (fallbackCause != null) {
+            connection.setRequestProperty("X-Local-Fallback-Cloudflare", "true");
+            inputParams.put("error_message", fallbackCause.getMessage());
+        }
+        String jsonInputParams = inputParams.toString();
+
+        try (OutputStream os = connection.getOutputStream()) {
+            byte[] input = jsonInputParams.getBytes("utf-8");
+            os.write(input, 0, input.length);
+        }
+
+        try (InputStream is = connection.getInputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"))) {
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.append(line.trim());
+            }
+            String responseBody = response.toString();
+            JSONObject json = new JSONObject(responseBody);
+            if (json.has("error")) {
+              throw new Exception(json.getString("error"));
+            }
+            return json.getJSONObject("data").getString("endpoint");
+        } catch (IOException e) {
+            /* An error status, keep the connection for the fallback request */
+            HttpTransport.release(connection);
+            throw e;
         }
     }
 
     private void downloadBinary(String destParentDir, Boolean custom) throws LocalException {
         try {
-            fetchSourceUrl();
-
             String source = destParentDir;
             if (!custom) {
                 if (!new File(destParentDir).exists())
@@ -255,60 +457,102 @@ class LocalBinary {
                     source += ".exe";
                 }
             }
-            URL url = new URL(sourceUrl + '/' + binaryFileName);
-
             File f = new File(source);
-            newCopyToFile(url, f);
 
-            changePermissions(binaryPath);
+            try (BinaryLock lock = BinaryLock.acquire(f, deadline)) {
+                if (f.exists()) {
+                    /* Another process downloaded the binary while we were waiting for the lock */
+                    return;
+                }
+
+                EndpointCache endpointCache = new EndpointCache(f.getAbsoluteFile().getParentFile(), key);
+                fetchSourceUrl(endpointCache);
+                URL url = new URL(sourceUrl + '/' + binaryFileName());
+
+                deadline.check(LocalMetricsListener.Phase.DOWNLOAD);
+                long started = System.nanoTime();
+                boolean succeeded = false;
+                try {
+                    String sha256 = BinaryDownloader.download(url, f, System.getenv("BROWSERSTACK_LOCAL_BINARY_SHA256"),
+                            downloadConnections, Backoff.DEFAULT, metrics, deadline);
+                    succeeded = true;
+                    if (!custom) {
+                        downloadedSha256 = sha256;
+                    }
+                    if (!sourceUrlCached) {
+                        /* Only an endpoint that actually served the binary is worth remembering */
+                        endpointCache.store(sourceUrl, fallbackEnabled);
+                    }
+                } finally {
+                    metrics.onPhase(LocalMetricsListener.Phase.DOWNLOAD, System.nanoTime() - started, succeeded);
+                }
+            }
         } catch (Throwable e) {
+            if (e instanceof LocalException && ((LocalException) e).getPhase() != null) {
+                throw (LocalException) e;
+            }
+            if (deadline.isExpired()) {
+                throw deadline.expired(LocalMetricsListener.Phase.DOWNLOAD);
+            }
             throw new LocalException("Error trying to download BrowserStackLocal binary: " + e.getMessage());
         }
     }
 
-    private void changePermissions(String path) {
-        File f = new File(path);
-        f.setExecutable(true, true);
-        f.setReadable(true, true);
-        f.setWritable(true, true);
-    }
-
     public String getBinaryPath() {
         return binaryPath;
     }
 
-    private static void newCopyToFile(URL url, File f) throws IOException {
-        URLConnection conn = url.openConnection();
-        conn.setRequestProperty("User-Agent", "browserstack-local-java/" + Local.getPackageVersion());
-        conn.setRequestProperty("Accept-Encoding", "gzip, *");
-        String contentEncoding = conn.getContentEncoding();
-
-        if (contentEncoding == null || !contentEncoding.toLowerCase().contains("gzip")) {
-            customCopyInputStreamToFile(conn.getInputStream(), f, url);
-            return;
-        }
-
-        try (InputStream stream = new GZIPInputStream(conn.getInputStream())) {
-            if (System.getenv().containsKey("BROWSERSTACK_LOCAL_DEBUG_GZIP")) {
-                System.out.println("using gzip in " + conn.getRequestProperty("User-Agent"));
-            }
-
-            customCopyInputStreamToFile(stream, f, url);
-        } catch (ZipException e) {
-            FileUtils.copyURLToFile(url, f);
+    /**
+     * Locates the binary for the given options in the background, downloading
+     * and validating it if needed, exactly as {@link Local#start(LocalOptions)}
+     * would
+     *
+     * @param options Options of the Local instances that will use the binary
+     * @return future completed with the path of the validated binary
+     */
+    public static CompletableFuture<String> prefetch(final LocalOptions options) {
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        try {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    result.complete(new LocalBinary(options, DefaultProcessLauncher.INSTANCE, LocalMetricsListener.NONE)
+                            .getBinaryPath());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
         }
+        return result;
     }
 
-    private static void customCopyInputStreamToFile(InputStream stream, File file, URL url) throws IOException {
+    /**
+     * Prefetches the binary from the command line, for example from a build
+     * step, and prints its path. Options are given as "--name value" pairs
+     * named as in the options map, such as "--binarypath" or
+     * "--parallelDownloads". The key defaults to the BROWSERSTACK_ACCESS_KEY
+     * environment variable.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(String[] args) {
+        LocalOptions.Builder builder = LocalOptions.builder().key(System.getenv("BROWSERSTACK_ACCESS_KEY"));
         try {
-            FileUtils.copyInputStreamToFile(stream, file); 
-        } catch (Throwable e) {
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                IOUtils.copy(stream, fos);
-            } catch (Throwable th) {
-                FileUtils.copyURLToFile(url, file);
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                }
+                String value = i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true";
+                builder.option(args[i].substring(2), value);
             }
+            System.out.println(prefetch(builder.build()).get());
+        } catch (ExecutionException e) {
+            System.err.println("Failed to prefetch BrowserStackLocal binary: " + e.getCause().getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Failed to prefetch BrowserStackLocal binary: " + e.getMessage());
+            System.exit(1);
         }
     }
 }
-
@@ -1,8 +1,26 @@
 package com.browserstack.local;
 
-class LocalException extends Exception {
+public class LocalException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LocalMetricsListener.Phase phase;
 
     LocalException(String message) {
+        this(message, null);
+    }
+
+    LocalException(String message, LocalMetricsListener.Phase phase) {
         super(message);
+        this.phase = phase;
+    }
+
+    /**
+     * Returns the phase of the start that ran out of time
+     *
+     * @return phase, or null if the failure was not a timeout
+     */
+    public LocalMetricsListener.Phase getPhase() {
+        return phase;
     }
 }
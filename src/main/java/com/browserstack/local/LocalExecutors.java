@@ -0,0 +1,93 @@
+package com.browserstack.local;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used for the library's background work.
+ */
+final class LocalExecutors {
+
+    private static volatile ExecutorService defaultExecutor;
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private LocalExecutors() {
+    }
+
+    /**
+     * Returns the shared executor for asynchronous tunnel operations. Tasks
+     * run on virtual threads when the runtime supports them, otherwise on a
+     * cached pool of daemon threads.
+     *
+     * @return shared executor
+     */
+    static ExecutorService defaultExecutor() {
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (LocalExecutors.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = virtualThreadExecutor();
+                    if (executor == null) {
+                        executor = Executors.newCachedThreadPool(daemonThreadFactory("BrowserStackLocal-worker"));
+                    }
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the shared single threaded scheduler for periodic background
+     * checks. Scheduled tasks must be short and must not block.
+     *
+     * @return shared scheduler
+     */
+    static ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            synchronized (LocalExecutors.class) {
+                executor = scheduler;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("BrowserStackLocal-scheduler"));
+                    scheduler = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Creates a factory for named daemon threads, so background work never
+     * keeps the JVM alive.
+     *
+     * @param prefix Thread name prefix
+     * @return thread factory
+     */
+    static ThreadFactory daemonThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
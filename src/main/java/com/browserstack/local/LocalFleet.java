@@ -0,0 +1,220 @@
+package com.browserstack.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Starts many tunnels, for example one per localIdentifier of a sharded
+ * build, with a bounded number of starts in flight.
+ *
+ * The binary is resolved and validated once up front and then shared by every
+ * tunnel. Each start gets its own timeout, and one failed tunnel does not
+ * stop the others from starting.
+ *
+ * <pre>
+ * LocalFleet fleet = new LocalFleet(8, 2, TimeUnit.MINUTES);
+ * LocalFleet.Result result = fleet.startAll(optionsPerShard);
+ * ...
+ * fleet.stop();
+ * </pre>
+ */
+public class LocalFleet {
+
+    private final int concurrency;
+    private final long timeoutNanos;
+    private final Supplier<Local> factory;
+    private final List<Local> started = Collections.synchronizedList(new ArrayList<Local>());
+
+    /**
+     * Creates a fleet
+     *
+     * @param concurrency Maximum number of tunnels starting at the same time
+     * @param startTimeout Time each tunnel is given to connect, counted from the call to start; at least 1 ms
+     * @param unit Unit of startTimeout
+     * @throws IllegalArgumentException if concurrency is less than 1 or startTimeout less than 1 ms
+     */
+    public LocalFleet(int concurrency, long startTimeout, TimeUnit unit) {
+        this(concurrency, startTimeout, unit, Local::new);
+    }
+
+    LocalFleet(int concurrency, long startTimeout, TimeUnit unit, Supplier<Local> factory) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if (unit.toMillis(startTimeout) < 1) {
+            /* Without a timeout, a hung start would hold its worker and every tunnel queued behind it */
+            throw new IllegalArgumentException("startTimeout must be at least 1 ms");
+        }
+        this.concurrency = concurrency;
+        this.timeoutNanos = unit.toNanos(startTimeout);
+        this.factory = factory;
+    }
+
+    /**
+     * Starts one tunnel per options map without blocking
+     *
+     * The returned futures are in the same order as the options and each one
+     * completes as soon as its tunnel has connected, failed or timed out.
+     *
+     * @param optionsList Options for each tunnel
+     * @return one future per tunnel
+     * @throws LocalException if the binary cannot be resolved
+     */
+    public List<CompletableFuture<Local>> start(List<Map<String, String>> optionsList) throws LocalException {
+        List<CompletableFuture<Local>> tunnels = new ArrayList<CompletableFuture<Local>>();
+        if (optionsList.isEmpty()) {
+            return tunnels;
+        }
+
+        String binaryPath = factory.get().resolveBinary(Local.toOptions(optionsList.get(0))).getBinaryPath();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, optionsList.size()),
+                LocalExecutors.daemonThreadFactory("BrowserStackLocal-fleet"));
+
+        for (Map<String, String> options : optionsList) {
+            final Map<String, String> shared = new HashMap<String, String>(options);
+            if (shared.get("binarypath") == null) {
+                shared.put("binarypath", binaryPath);
+            }
+            tunnels.add(startOne(executor, shared));
+        }
+
+        CompletableFuture.allOf(tunnels.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((v, e) -> executor.shutdown());
+        return tunnels;
+    }
+
+    /**
+     * Starts one tunnel per options map and waits for all of them
+     *
+     * @param optionsList Options for each tunnel
+     * @return the tunnels that started and the failures of those that did not
+     * @throws LocalException if the binary cannot be resolved
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result startAll(List<Map<String, String>> optionsList) throws LocalException, InterruptedException {
+        List<CompletableFuture<Local>> tunnels = start(optionsList);
+        Map<Integer, Local> succeeded = new LinkedHashMap<Integer, Local>();
+        Map<Integer, Throwable> failed = new LinkedHashMap<Integer, Throwable>();
+        for (int i = 0; i < tunnels.size(); i++) {
+            try {
+                succeeded.put(i, tunnels.get(i).get());
+            } catch (ExecutionException e) {
+                failed.put(i, e.getCause());
+            }
+        }
+        return new Result(succeeded, failed);
+    }
+
+    /**
+     * Stops every tunnel this fleet started, in parallel
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        List<CompletableFuture<Void>> stops = new ArrayList<CompletableFuture<Void>>();
+        synchronized (started) {
+            for (Local local : started) {
+                stops.add(local.stopAsync());
+            }
+            started.clear();
+        }
+        for (CompletableFuture<Void> stop : stops) {
+            try {
+                stop.get();
+            } catch (ExecutionException ignored) {
+                /* Keep stopping the rest */
+            }
+        }
+    }
+
+    /**
+     * Queues the start of one tunnel. Its timeout runs from now, so time
+     * spent waiting for a free worker counts against it, and the start itself
+     * is given the time that is left as its startTimeout, so a hung start
+     * gives up and frees its worker for the tunnels queued behind it.
+     */
+    private CompletableFuture<Local> startOne(ExecutorService executor, final Map<String, String> options) {
+        final CompletableFuture<Local> result = new CompletableFuture<Local>();
+        final Deadline deadline = Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS);
+        final ScheduledFuture<?> timeout = LocalExecutors.scheduler().schedule(() -> {
+            result.completeExceptionally(timedOut(options, null));
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+        result.whenComplete((local, e) -> timeout.cancel(false));
+
+        executor.execute(() -> {
+            if (result.isDone()) {
+                /* Timed out while queued */
+                return;
+            }
+            final Local local = factory.get();
+            try {
+                local.start(boundedBy(options, deadline));
+                started.add(local);
+                if (!result.complete(local)) {
+                    /* Connected after its timeout, nobody is waiting for it */
+                    started.remove(local);
+                    local.stopAsync();
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(deadline.isExpired() ? timedOut(options, t) : t);
+            }
+        });
+        return result;
+    }
+
+    private static Map<String, String> boundedBy(Map<String, String> options, Deadline deadline) throws LocalException {
+        /* Rounded up, so the start does not give up before the fleet's timeout has passed */
+        long remainingMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos() + 999999));
+        long own = Local.toOptions(options).getStartTimeoutMillis();
+        if (own > 0 && own <= remainingMillis) {
+            return options;
+        }
+        Map<String, String> bounded = new HashMap<String, String>(options);
+        bounded.put("startTimeout", String.valueOf(remainingMillis / 1000.0));
+        return bounded;
+    }
+
+    private static TimeoutException timedOut(Map<String, String> options, Throwable cause) {
+        TimeoutException e = new TimeoutException("Tunnel " + options.get("localIdentifier") + " did not connect in time");
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Outcome of {@link #startAll(List)}, keyed by the position of each
+     * options map in the list
+     */
+    public static final class Result {
+        private final Map<Integer, Local> started;
+        private final Map<Integer, Throwable> failures;
+
+        Result(Map<Integer, Local> started, Map<Integer, Throwable> failures) {
+            this.started = Collections.unmodifiableMap(started);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        public Map<Integer, Local> getStarted() {
+            return started;
+        }
+
+        public Map<Integer, Throwable> getFailures() {
+            return failures;
+        }
+
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.browserstack.local;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LocalMetricsListener} that aggregates what it receives into
+ * counters and timers named the way Micrometer names meters, so they can be
+ * copied into a meter registry or printed at the end of a run.
+ *
+ * Meters are identified by a name and tags, written as
+ * <code>browserstack.local.phase{outcome=success,phase=download}</code>.
+ *
+ * <ul>
+ * <li>{@value #PHASE_TIMER} times each phase, tagged with phase and outcome</li>
+ * <li>{@value #DOWNLOADED_BYTES} counts bytes of the binary received</li>
+ * <li>{@value #RETRIES} counts retries, tagged with phase</li>
+ * <li>{@value #FALLBACKS} counts switches to the fallback download endpoint</li>
+ * </ul>
+ */
+public class LocalMetrics implements LocalMetricsListener {
+
+    public static final String PHASE_TIMER = "browserstack.local.phase";
+    public static final String DOWNLOADED_BYTES = "browserstack.local.download.bytes";
+    public static final String RETRIES = "browserstack.local.retries";
+    public static final String FALLBACKS = "browserstack.local.fallbacks";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    public void onPhase(Phase phase, long nanos, boolean succeeded) {
+        timers.computeIfAbsent(id(PHASE_TIMER, "outcome", succeeded ? "success" : "failure", "phase", tag(phase)),
+                k -> new Timer()).record(nanos);
+    }
+
+    public void onBytesDownloaded(long bytes) {
+        counter(DOWNLOADED_BYTES).add(bytes);
+    }
+
+    public void onRetry(Phase phase) {
+        counter(id(RETRIES, "phase", tag(phase))).increment();
+    }
+
+    public void onFallback(Throwable cause) {
+        counter(FALLBACKS).increment();
+    }
+
+    /**
+     * Returns the value of a counter
+     *
+     * @param name Meter name
+     * @param tags Alternating tag keys and values, in alphabetical order of key
+     * @return counter value, 0 if nothing was counted
+     */
+    public long count(String name, String... tags) {
+        LongAdder counter = counters.get(id(name, tags));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns a timer
+     *
+     * @param name Meter name
+     * @param tags Alternating tag keys and values, in alphabetical order of key
+     * @return timer, empty if nothing was recorded
+     */
+    public Timer timer(String name, String... tags) {
+        Timer timer = timers.get(id(name, tags));
+        return timer == null ? new Timer() : timer;
+    }
+
+    /**
+     * Returns the time recorded for a phase, whatever its outcome
+     *
+     * @param phase Phase
+     * @param unit Unit of the result
+     * @return total time spent in the phase
+     */
+    public long totalTime(Phase phase, TimeUnit unit) {
+        return timer(PHASE_TIMER, "outcome", "success", "phase", tag(phase)).totalTime(unit)
+                + timer(PHASE_TIMER, "outcome", "failure", "phase", tag(phase)).totalTime(unit);
+    }
+
+    /**
+     * Returns a snapshot of every counter, keyed by meter id
+     *
+     * @return counter values
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns every timer, keyed by meter id
+     *
+     * @return timers
+     */
+    public Map<String, Timer> getTimers() {
+        return new TreeMap<String, Timer>(timers);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Timer> timer : getTimers().entrySet()) {
+            sb.append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            sb.append(counter.getKey()).append(' ').append(counter.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private LongAdder counter(String id) {
+        return counters.computeIfAbsent(id, k -> new LongAdder());
+    }
+
+    private static String tag(Phase phase) {
+        return phase.name().toLowerCase();
+    }
+
+    private static String id(String name, String... tags) {
+        if (tags.length == 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Count, total and maximum of recorded durations
+     */
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long totalTime(TimeUnit unit) {
+            return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long max(TimeUnit unit) {
+            return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        public double mean(TimeUnit unit) {
+            long n = count();
+            return n == 0 ? 0 : (double) totalTime(TimeUnit.NANOSECONDS) / n / unit.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count() + " total=" + totalTime(TimeUnit.MILLISECONDS)
+                    + "ms max=" + max(TimeUnit.MILLISECONDS) + "ms";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.browserstack.local;
+
+/**
+ * Receives timings and counts from the startup of a Local instance.
+ *
+ * Every method has an empty default, so implementations only override what
+ * they record. Calls can come from download worker threads as well as the
+ * thread starting the tunnel, so implementations must be thread safe, and
+ * they should return quickly since they run inline.
+ *
+ * <pre>
+ * LocalMetrics metrics = new LocalMetrics();
+ * bsLocal.setMetricsListener(metrics);
+ * bsLocal.start(bsLocalArgs);
+ * System.out.println(metrics);
+ * </pre>
+ */
+public interface LocalMetricsListener {
+
+    /**
+     * Listener that ignores everything
+     */
+    LocalMetricsListener NONE = new LocalMetricsListener() {
+    };
+
+    /**
+     * Steps of bringing a tunnel up and down
+     */
+    enum Phase {
+        /** Detecting the OS and picking the binary for it */
+        PLATFORM_DETECT,
+        /** Asking the endpoint API where to download the binary from */
+        FETCH_SOURCE_URL,
+        /** Downloading the binary */
+        DOWNLOAD,
+        /** Running the binary with --version */
+        VALIDATE,
+        /** Launching the daemon and waiting for its state message */
+        HANDSHAKE,
+        /** Stopping the daemon */
+        STOP
+    }
+
+    /**
+     * Called when a phase finishes
+     *
+     * @param phase Phase that finished
+     * @param nanos Time the phase took, in nanoseconds
+     * @param succeeded false if the phase ended with an error
+     */
+    default void onPhase(Phase phase, long nanos, boolean succeeded) {
+    }
+
+    /**
+     * Called as bytes of the binary arrive over the network
+     *
+     * @param bytes Number of bytes received since the previous call
+     */
+    default void onBytesDownloaded(long bytes) {
+    }
+
+    /**
+     * Called before a failed step is attempted again
+     *
+     * @param phase Phase being retried
+     */
+    default void onRetry(Phase phase) {
+    }
+
+    /**
+     * Called when resolving the binary failed and is being retried against
+     * the fallback download endpoint
+     *
+     * @param cause Failure that triggered the fallback
+     */
+    default void onFallback(Throwable cause) {
+    }
+}
@@ -0,0 +1,528 @@
+package com.browserstack.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable, validated options for a Local instance.
+ *
+ * The daemon arguments are worked out once when the options are built, so
+ * starting and stopping a tunnel only prepends the binary path and the
+ * operation. Modifiers are kept sorted by name, which makes two option sets
+ * for the same tunnel equal regardless of the order they were given in, and
+ * lets options serve as a key for pooling and caching.
+ *
+ * <pre>
+ * LocalOptions options = LocalOptions.builder()
+ *         .key("&lt;browserstack-accesskey&gt;")
+ *         .localIdentifier("build-42")
+ *         .force(true)
+ *         .build();
+ * bsLocal.start(options);
+ * </pre>
+ *
+ * {@link #fromMap(Map)} accepts the same options as {@link Local#start(Map)}.
+ */
+public final class LocalOptions {
+
+    // Options that take no value, and the flag each one is passed to the daemon as
+    private static final Map<String, String> FLAGS = new HashMap<String, String>();
+
+    static {
+        FLAGS.put("v", "-vvv");
+        FLAGS.put("force", "-force");
+        FLAGS.put("forcelocal", "-forcelocal");
+        FLAGS.put("onlyAutomate", "-onlyAutomate");
+        FLAGS.put("forceproxy", "-forceproxy");
+    }
+
+    // Values not to show in toString
+    private static final List<String> SECRETS = Arrays.asList("key", "proxyPass", "localProxyPass");
+
+    private final String key;
+    private final Map<String, String> modifiers;
+    private final String binaryPath;
+    private final int parallelDownloads;
+    private final boolean binaryAutoUpdate;
+    private final String binaryVersion;
+    private final long startTimeoutMillis;
+    private final boolean shareDaemon;
+    private final boolean onlyCommand;
+    private final List<String> arguments;
+    private final ConcurrentMap<String, List<String>> commands = new ConcurrentHashMap<String, List<String>>();
+
+    private LocalOptions(Builder builder) {
+        this.key = builder.key;
+        this.modifiers = Collections.unmodifiableMap(new TreeMap<String, String>(builder.modifiers));
+        this.binaryPath = builder.binaryPath;
+        this.parallelDownloads = builder.parallelDownloads;
+        this.binaryAutoUpdate = builder.binaryAutoUpdate;
+        this.binaryVersion = builder.binaryVersion;
+        this.startTimeoutMillis = builder.startTimeoutMillis;
+        this.shareDaemon = builder.shareDaemon;
+        this.onlyCommand = builder.onlyCommand;
+
+        List<String> args = new ArrayList<String>();
+        args.add("--key");
+        args.add(key != null ? key : "");
+        args.add("--source");
+        args.add("java-" + Local.getPackageVersion());
+        for (Map.Entry<String, String> modifier : modifiers.entrySet()) {
+            String flag = FLAGS.get(modifier.getKey());
+            if (flag != null) {
+                args.add(flag);
+                continue;
+            }
+            args.add("-" + modifier.getKey());
+            if (modifier.getValue() != null) {
+                args.add(modifier.getValue());
+            }
+        }
+        this.arguments = Collections.unmodifiableList(args);
+    }
+
+    /**
+     * Creates a builder
+     *
+     * @return empty builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Converts the options map accepted by {@link Local#start(Map)}
+     *
+     * A boolean modifier such as "force" is left out when its value is
+     * "false". Any option the binding does not know is passed to the daemon as
+     * "-name value".
+     *
+     * @param options Options for the Local instance
+     * @return validated options
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public static LocalOptions fromMap(Map<String, String> options) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, String> opt : options.entrySet()) {
+            builder.option(opt.getKey(), opt.getValue());
+        }
+        return builder.build();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getLocalIdentifier() {
+        return modifiers.get("localIdentifier");
+    }
+
+    /**
+     * Returns the modifiers passed to the daemon, sorted by name. Boolean
+     * modifiers that are set have a null value.
+     *
+     * @return modifiers
+     */
+    public Map<String, String> getModifiers() {
+        return modifiers;
+    }
+
+    public String getBinaryPath() {
+        return binaryPath;
+    }
+
+    public int getParallelDownloads() {
+        return parallelDownloads;
+    }
+
+    public boolean isBinaryAutoUpdate() {
+        return binaryAutoUpdate;
+    }
+
+    /**
+     * Returns the pinned binary version
+     *
+     * @return version such as "8.9", or null to use the latest binary
+     */
+    public String getBinaryVersion() {
+        return binaryVersion;
+    }
+
+    /**
+     * Returns the time a start may take in total, from locating the binary to
+     * the daemon's handshake
+     *
+     * @return timeout in milliseconds, 0 for no timeout
+     */
+    public long getStartTimeoutMillis() {
+        return startTimeoutMillis;
+    }
+
+    public boolean isShareDaemon() {
+        return shareDaemon;
+    }
+
+    public boolean isOnlyCommand() {
+        return onlyCommand;
+    }
+
+    /**
+     * Returns the arguments passed to the daemon after the operation: the key,
+     * the source and the modifiers. Options that only affect how the binding
+     * finds the binary are not included, so two option sets with equal
+     * arguments start the same tunnel.
+     *
+     * @return immutable argument list
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Returns the full command line for an operation of the daemon
+     *
+     * @param binaryPath Path of the binary
+     * @param opCode Operation, "start" or "stop"
+     * @return immutable command line
+     */
+    List<String> command(String binaryPath, String opCode) {
+        String cacheKey = opCode + '\u0000' + binaryPath;
+        List<String> command = commands.get(cacheKey);
+        if (command == null) {
+            List<String> built = new ArrayList<String>(arguments.size() + 3);
+            built.add(binaryPath);
+            built.add("-d");
+            built.add(opCode);
+            built.addAll(arguments);
+            command = Collections.unmodifiableList(built);
+            commands.putIfAbsent(cacheKey, command);
+        }
+        return command;
+    }
+
+    /**
+     * Converts back to the map form accepted by {@link Local#start(Map)}
+     *
+     * @return mutable options map
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        if (key != null) {
+            map.put("key", key);
+        }
+        for (Map.Entry<String, String> modifier : modifiers.entrySet()) {
+            map.put(modifier.getKey(), modifier.getValue() != null ? modifier.getValue() : "true");
+        }
+        if (binaryPath != null) {
+            map.put("binarypath", binaryPath);
+        }
+        if (parallelDownloads != 1) {
+            map.put("parallelDownloads", String.valueOf(parallelDownloads));
+        }
+        if (binaryAutoUpdate) {
+            map.put("binaryAutoUpdate", "true");
+        }
+        if (binaryVersion != null) {
+            map.put("binaryVersion", binaryVersion);
+        }
+        if (startTimeoutMillis != 0) {
+            map.put("startTimeout", startTimeoutMillis % 1000 == 0
+                    ? String.valueOf(startTimeoutMillis / 1000) : String.valueOf(startTimeoutMillis / 1000.0));
+        }
+        if (shareDaemon) {
+            map.put("shareDaemon", "true");
+        }
+        if (onlyCommand) {
+            map.put("onlyCommand", "true");
+        }
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LocalOptions)) {
+            return false;
+        }
+        LocalOptions other = (LocalOptions) o;
+        return arguments.equals(other.arguments)
+                && Objects.equals(binaryPath, other.binaryPath)
+                && parallelDownloads == other.parallelDownloads
+                && binaryAutoUpdate == other.binaryAutoUpdate
+                && Objects.equals(binaryVersion, other.binaryVersion)
+                && startTimeoutMillis == other.startTimeoutMillis
+                && shareDaemon == other.shareDaemon
+                && onlyCommand == other.onlyCommand;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(arguments, binaryPath, parallelDownloads, binaryAutoUpdate, binaryVersion,
+                startTimeoutMillis, shareDaemon, onlyCommand);
+    }
+
+    @Override
+    public String toString() {
+        Map<String, String> shown = toMap();
+        for (String secret : SECRETS) {
+            if (shown.containsKey(secret)) {
+                shown.put(secret, "****");
+            }
+        }
+        return "LocalOptions" + shown;
+    }
+
+    /**
+     * Builds {@link LocalOptions}. Each setter validates its value right away.
+     */
+    public static final class Builder {
+        private String key;
+        private final Map<String, String> modifiers = new HashMap<String, String>();
+        private String binaryPath;
+        private int parallelDownloads = 1;
+        private boolean binaryAutoUpdate = false;
+        private String binaryVersion;
+        private long startTimeoutMillis = 0;
+        private boolean shareDaemon = false;
+        private boolean onlyCommand = false;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets an option by the name used in the options map, see {@link LocalOptions#fromMap(Map)}
+         *
+         * @param name Option name
+         * @param value Option value, null for a modifier without a value
+         * @return this builder
+         */
+        public Builder option(String name, String value) {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Option name must not be empty");
+            }
+            name = name.trim();
+            String trimmed = value != null ? value.trim() : null;
+
+            if (name.equals("key")) {
+                return key(value);
+            } else if (name.equals("binarypath")) {
+                return binaryPath(value);
+            } else if (name.equals("parallelDownloads")) {
+                try {
+                    return parallelDownloads(trimmed == null ? 1 : Integer.parseInt(trimmed));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for parallelDownloads: " + value);
+                }
+            } else if (name.equals("binaryAutoUpdate")) {
+                return binaryAutoUpdate("true".equalsIgnoreCase(trimmed));
+            } else if (name.equals("binaryVersion")) {
+                return binaryVersion(trimmed);
+            } else if (name.equals("startTimeout")) {
+                try {
+                    double seconds = trimmed == null ? 0 : Double.parseDouble(trimmed);
+                    return startTimeout(Math.round(seconds * 1000), TimeUnit.MILLISECONDS);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for startTimeout: " + value);
+                }
+            } else if (name.equals("shareDaemon")) {
+                return shareDaemon("true".equalsIgnoreCase(trimmed));
+            } else if (name.equals("onlyCommand")) {
+                return onlyCommand(value != null);
+            } else if (FLAGS.containsKey(name)) {
+                return flag(name, !"false".equalsIgnoreCase(trimmed));
+            }
+
+            modifiers.put(name, trimmed);
+            return this;
+        }
+
+        public Builder key(String key) {
+            this.key = key;
+            return this;
+        }
+
+        public Builder localIdentifier(String localIdentifier) {
+            return value("localIdentifier", localIdentifier);
+        }
+
+        /**
+         * Enables verbose logging of the daemon (-vvv)
+         *
+         * @param verbose true to enable
+         * @return this builder
+         */
+        public Builder verbose(boolean verbose) {
+            return flag("v", verbose);
+        }
+
+        public Builder force(boolean force) {
+            return flag("force", force);
+        }
+
+        public Builder forceLocal(boolean forceLocal) {
+            return flag("forcelocal", forceLocal);
+        }
+
+        public Builder forceProxy(boolean forceProxy) {
+            return flag("forceproxy", forceProxy);
+        }
+
+        public Builder onlyAutomate(boolean onlyAutomate) {
+            return flag("onlyAutomate", onlyAutomate);
+        }
+
+        /**
+         * Tests a local folder instead of an internal server
+         *
+         * @param folder Path of the folder
+         * @return this builder
+         */
+        public Builder folder(String folder) {
+            return value("f", folder);
+        }
+
+        /**
+         * Restricts the tunnel to the given hosts
+         *
+         * @param only Comma separated host, port and ssl flag triples
+         * @return this builder
+         */
+        public Builder only(String only) {
+            return value("only", only);
+        }
+
+        public Builder proxy(String host, int port) {
+            if (port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Invalid proxy port: " + port);
+            }
+            value("proxyHost", host);
+            return value("proxyPort", String.valueOf(port));
+        }
+
+        public Builder proxyCredentials(String user, String pass) {
+            value("proxyUser", user);
+            return value("proxyPass", pass);
+        }
+
+        public Builder logFile(String logFile) {
+            return value("logFile", logFile);
+        }
+
+        public Builder binaryPath(String binaryPath) {
+            this.binaryPath = binaryPath;
+            return this;
+        }
+
+        /**
+         * Sets how many connections download the binary
+         *
+         * @param parallelDownloads Number of connections, at least 1
+         * @return this builder
+         */
+        public Builder parallelDownloads(int parallelDownloads) {
+            if (parallelDownloads < 1) {
+                throw new IllegalArgumentException("Invalid value for parallelDownloads: " + parallelDownloads);
+            }
+            this.parallelDownloads = parallelDownloads;
+            return this;
+        }
+
+        public Builder binaryAutoUpdate(boolean binaryAutoUpdate) {
+            this.binaryAutoUpdate = binaryAutoUpdate;
+            return this;
+        }
+
+        /**
+         * Pins the binary to a version kept in the binary store under
+         * ~/.browserstack/store, which holds every version downloaded on this
+         * host. A pinned version is never downloaded, a start fails if it is
+         * not in the store.
+         *
+         * @param binaryVersion Version such as "8.9", or null for the latest
+         * @return this builder
+         */
+        public Builder binaryVersion(String binaryVersion) {
+            if (binaryVersion != null && !binaryVersion.matches("\\d+\\.\\d+")) {
+                throw new IllegalArgumentException("Invalid value for binaryVersion: " + binaryVersion);
+            }
+            this.binaryVersion = binaryVersion;
+            return this;
+        }
+
+        /**
+         * Bounds the time a start may take in total. A start still locating,
+         * downloading or validating the binary, or waiting for the daemon's
+         * handshake, when the time is up fails with a {@link LocalException}
+         * naming the phase, and a daemon it was starting is stopped. In the
+         * options map, "startTimeout" is given in seconds.
+         *
+         * @param timeout Time allowed, 0 for no timeout
+         * @param unit Unit of timeout
+         * @return this builder
+         */
+        public Builder startTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Invalid value for startTimeout: " + timeout);
+            }
+            this.startTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Shares one daemon between every instance on this host, in any JVM,
+         * started with the same options. The daemon is stopped when the last
+         * of them stops.
+         *
+         * @param shareDaemon true to share the daemon
+         * @return this builder
+         */
+        public Builder shareDaemon(boolean shareDaemon) {
+            this.shareDaemon = shareDaemon;
+            return this;
+        }
+
+        /**
+         * Only builds the command line, without starting the daemon
+         *
+         * @param onlyCommand true to skip starting
+         * @return this builder
+         */
+        public Builder onlyCommand(boolean onlyCommand) {
+            this.onlyCommand = onlyCommand;
+            return this;
+        }
+
+        public LocalOptions build() {
+            return new LocalOptions(this);
+        }
+
+        private Builder value(String name, String value) {
+            if (value == null || value.trim().isEmpty()) {
+                throw new IllegalArgumentException(name + " must not be empty");
+            }
+            modifiers.put(name, value.trim());
+            return this;
+        }
+
+        private Builder flag(String name, boolean enabled) {
+            if (enabled) {
+                modifiers.put(name, null);
+            } else {
+                modifiers.remove(name);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.browserstack.local;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a bounded set of running Local instances that callers with compatible
+ * options can share.
+ *
+ * Tunnels are keyed by the daemon arguments of their {@link LocalOptions},
+ * so two callers asking for the same key, localIdentifier, only and proxy
+ * settings lease the same tunnel. Leases are reference counted; a tunnel
+ * nobody holds is stopped once it has been idle for the configured TTL.
+ *
+ * <pre>
+ * LocalPool pool = new LocalPool(4, 5, TimeUnit.MINUTES);
+ * try (LocalPool.Lease lease = pool.lease(options)) {
+ *     // run tests against lease.getLocal()
+ * }
+ * </pre>
+ */
+public class LocalPool implements Closeable {
+
+    private final int maxSize;
+    private final long idleTtlNanos;
+    private final Supplier<Local> factory;
+    private final Map<List<String>, Entry> entries = new HashMap<List<String>, Entry>();
+    private final ScheduledFuture<?> evictor;
+    private boolean closed = false;
+
+    /**
+     * Creates a pool
+     *
+     * @param maxSize Maximum number of tunnels kept running at once
+     * @param idleTtl How long an unused tunnel is kept running
+     * @param unit Unit of idleTtl
+     */
+    public LocalPool(int maxSize, long idleTtl, TimeUnit unit) {
+        this(maxSize, idleTtl, unit, Local::new);
+    }
+
+    LocalPool(int maxSize, long idleTtl, TimeUnit unit, Supplier<Local> factory) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.idleTtlNanos = unit.toNanos(idleTtl);
+        this.factory = factory;
+
+        long period = Math.max(TimeUnit.SECONDS.toNanos(1), idleTtlNanos / 2);
+        this.evictor = LocalExecutors.scheduler().scheduleWithFixedDelay(
+                this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Leases a running tunnel for the given options, starting one if no
+     * compatible tunnel is in the pool
+     *
+     * @param options Options for the Local instance
+     * @return lease, to be closed when the caller is done with the tunnel
+     * @throws Exception if the tunnel cannot be started or the pool is full
+     */
+    public Lease lease(Map<String, String> options) throws Exception {
+        return lease(Local.toOptions(options), options);
+    }
+
+    /**
+     * Leases a running tunnel for the given options, starting one if no
+     * compatible tunnel is in the pool
+     *
+     * @param options Options for the Local instance
+     * @return lease, to be closed when the caller is done with the tunnel
+     * @throws Exception if the tunnel cannot be started or the pool is full
+     */
+    public Lease lease(LocalOptions options) throws Exception {
+        return lease(options, null);
+    }
+
+    private Lease lease(LocalOptions options, Map<String, String> rawOptions) throws Exception {
+        List<String> fingerprint = options.getArguments();
+        Entry entry;
+        boolean owner = false;
+        List<Entry> evicted;
+
+        /* The health check may run a process, so it is done outside the lock */
+        Entry probed;
+        synchronized (this) {
+            probed = entries.get(fingerprint);
+        }
+        boolean healthy = probed == null || !probed.started.isDone() || probed.isHealthy();
+
+        synchronized (this) {
+            if (closed) {
+                throw new LocalException("LocalPool is closed");
+            }
+            evicted = new ArrayList<Entry>();
+            entry = entries.get(fingerprint);
+            if (entry != null && entry == probed && !healthy) {
+                /* Stopped as well, in case its daemon is wedged rather than gone */
+                entries.remove(fingerprint);
+                evicted.add(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                if (entries.size() >= maxSize && !evictOldestIdle(evicted)) {
+                    throw new LocalException("LocalPool is full, all " + maxSize + " tunnels are leased");
+                }
+                entry = new Entry(fingerprint, factory.get());
+                entries.put(fingerprint, entry);
+                owner = true;
+            }
+            entry.refs++;
+        }
+        stopAll(evicted);
+
+        if (owner) {
+            try {
+                if (rawOptions != null) {
+                    /* Keeps subclasses that override start(Map) working */
+                    entry.local.start(rawOptions);
+                } else {
+                    entry.local.start(options);
+                }
+                entry.started.complete(null);
+            } catch (Exception e) {
+                entry.started.completeExceptionally(e);
+            }
+        }
+
+        try {
+            entry.started.get();
+        } catch (ExecutionException e) {
+            release(entry, true);
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new LocalException(cause.toString());
+        }
+        return new Lease(entry);
+    }
+
+    /**
+     * Returns the number of tunnels currently in the pool
+     *
+     * @return pool size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stops every tunnel in the pool, leased or not
+     */
+    public void close() {
+        List<Entry> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        evictor.cancel(false);
+        stopAll(all);
+    }
+
+    /**
+     * Stops tunnels that have been unused for longer than the idle TTL
+     */
+    void evictIdle() {
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.refs == 0 && now - entry.idleSince >= idleTtlNanos) {
+                    it.remove();
+                    evicted.add(entry);
+                }
+            }
+        }
+        stopAll(evicted);
+    }
+
+    private boolean evictOldestIdle(List<Entry> evicted) {
+        Entry oldest = null;
+        for (Entry entry : entries.values()) {
+            if (entry.refs == 0 && (oldest == null || entry.idleSince < oldest.idleSince)) {
+                oldest = entry;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        entries.remove(oldest.fingerprint);
+        evicted.add(oldest);
+        return true;
+    }
+
+    private void release(Entry entry, boolean failed) {
+        synchronized (this) {
+            entry.refs--;
+            entry.idleSince = System.nanoTime();
+            if (!failed || entry.refs > 0) {
+                return;
+            }
+            if (entries.get(entry.fingerprint) == entry) {
+                entries.remove(entry.fingerprint);
+            }
+        }
+    }
+
+    private static void stopAll(List<Entry> stopped) {
+        for (final Entry entry : stopped) {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    entry.local.stop();
+                } catch (Exception ignored) {
+                    /* The tunnel is being discarded anyway */
+                }
+            });
+        }
+    }
+
+    private static final class Entry {
+        final List<String> fingerprint;
+        final Local local;
+        final CompletableFuture<Void> started = new CompletableFuture<Void>();
+        int refs = 0;
+        long idleSince = System.nanoTime();
+
+        Entry(List<String> fingerprint, Local local) {
+            this.fingerprint = fingerprint;
+            this.local = local;
+        }
+
+        boolean isHealthy() {
+            try {
+                return !started.isCompletedExceptionally() && local.isRunning();
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A leased tunnel. Closing the lease hands the tunnel back to the pool.
+     */
+    public final class Lease implements Closeable {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the leased Local instance
+         *
+         * @return running Local instance
+         */
+        public Local getLocal() {
+            return entry.local;
+        }
+
+        public void close() {
+            synchronized (LocalPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(entry, false);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.browserstack.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The Local instances of this JVM whose daemon is running, so they can be
+ * torn down together at the end of a run or when the JVM exits.
+ *
+ * Stops run in parallel on a bounded pool, so tearing down many tunnels
+ * takes about as long as the slowest stop rather than the sum of all of them.
+ */
+final class LocalRegistry {
+
+    static final int MAX_PARALLEL_STOPS = 16;
+
+    static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final Set<Local> running = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicBoolean hookInstalled = new AtomicBoolean(false);
+
+    private LocalRegistry() {
+    }
+
+    static void register(Local local) {
+        running.add(local);
+    }
+
+    static void unregister(Local local) {
+        running.remove(local);
+    }
+
+    static boolean isRegistered(Local local) {
+        return running.contains(local);
+    }
+
+    /**
+     * Stops every registered instance in parallel
+     *
+     * @param timeout Time to wait for all stops
+     * @param unit Unit of timeout
+     * @return true if every instance stopped in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static boolean stopAll(long timeout, TimeUnit unit) throws InterruptedException {
+        List<Local> locals = new ArrayList<Local>(running);
+        if (locals.isEmpty()) {
+            return true;
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_STOPS, locals.size()),
+                LocalExecutors.daemonThreadFactory("BrowserStackLocal-stop"));
+        try {
+            for (final Local local : locals) {
+                executor.execute(() -> {
+                    try {
+                        local.stop();
+                    } catch (Exception e) {
+                        failed.set(true);
+                    }
+                });
+            }
+            executor.shutdown();
+            return executor.awaitTermination(timeout, unit) && !failed.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Installs a shutdown hook that stops every registered instance, once per JVM
+     */
+    static void installShutdownHook() {
+        if (!hookInstalled.compareAndSet(false, true)) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                stopAll(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                /* The JVM is going away regardless */
+            }
+        }, "BrowserStackLocal-shutdown"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.browserstack.local;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One line of the daemon's log, split into its parts.
+ *
+ * Lines look like "&lt;timestamp&gt; [LEVEL] message". Parts a line does not
+ * have are null, and key=value pairs in the message, such as latencies, are
+ * collected into {@link #getFields()}.
+ */
+public final class LogEvent {
+
+    private static final Pattern LINE = Pattern.compile("^(.*?)\\s*(?:--\\s*)?\\[([A-Za-z]+)\\]\\s*(.*)$");
+
+    private static final Pattern FIELD = Pattern.compile("([A-Za-z_][\\w.-]*)=(\"[^\"]*\"|\\S+)");
+
+    private final String line;
+    private final String timestamp;
+    private final String level;
+    private final String message;
+    private final Map<String, String> fields;
+
+    private LogEvent(String line, String timestamp, String level, String message, Map<String, String> fields) {
+        this.line = line;
+        this.timestamp = timestamp;
+        this.level = level;
+        this.message = message;
+        this.fields = fields;
+    }
+
+    /**
+     * Parses a log line
+     *
+     * @param line Line without its line break
+     * @return parsed event
+     */
+    static LogEvent parse(String line) {
+        String timestamp = null;
+        String level = null;
+        String message = line;
+
+        Matcher m = LINE.matcher(line);
+        if (m.matches()) {
+            timestamp = m.group(1).isEmpty() ? null : m.group(1);
+            level = m.group(2).toUpperCase();
+            message = m.group(3);
+        }
+
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        Matcher f = FIELD.matcher(message);
+        while (f.find()) {
+            String value = f.group(2);
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            fields.put(f.group(1), value);
+        }
+        return new LogEvent(line, timestamp, level, message, Collections.unmodifiableMap(fields));
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
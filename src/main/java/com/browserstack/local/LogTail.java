@@ -0,0 +1,216 @@
+package com.browserstack.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Follows the daemon's log file and hands out its lines as {@link LogEvent}s.
+ *
+ * The file is polled with a positional {@link FileChannel} read that starts
+ * where the previous one stopped, so nothing is read twice and only one
+ * buffer's worth of the file is in memory at a time. Parsed events go into a
+ * bounded queue. While the queue is full the reader stops advancing through
+ * the file, so a slow consumer holds the tail back instead of growing memory.
+ * A file that shrinks is assumed to have been rotated and is read again from
+ * the start. The shared scheduler only times the polls; the file is read on
+ * the default executor, one poll at a time.
+ *
+ * <pre>
+ * try (LogTail tail = bsLocal.tailLog()) {
+ *     LogEvent event;
+ *     while ((event = tail.poll(1, TimeUnit.SECONDS)) != null) {
+ *         System.out.println(event.getLevel() + " " + event.getMessage());
+ *     }
+ * }
+ * </pre>
+ */
+public class LogTail implements Closeable {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    static final long DEFAULT_POLL_INTERVAL_MILLIS = 250;
+
+    // Longest line kept, the rest of a longer line is dropped
+    static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private final File file;
+    private final BlockingQueue<LogEvent> events;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    private final Deque<LogEvent> pending = new ArrayDeque<LogEvent>();
+    private final ScheduledFuture<?> poller;
+    private final AtomicBoolean reading = new AtomicBoolean();
+
+    private long position;
+    private volatile boolean closed = false;
+
+    /**
+     * Follows a log file from its current end
+     *
+     * @param file Log file, which does not have to exist yet
+     */
+    public LogTail(File file) {
+        this(file, false, DEFAULT_CAPACITY, DEFAULT_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Follows a log file
+     *
+     * @param file Log file, which does not have to exist yet
+     * @param fromStart true to read the lines already in the file, false to start at its end
+     * @param capacity Number of events buffered before reading pauses
+     * @param pollInterval Time between checks for new lines
+     * @param unit Unit of pollInterval
+     */
+    public LogTail(File file, boolean fromStart, int capacity, long pollInterval, TimeUnit unit) {
+        this.file = file;
+        this.events = new ArrayBlockingQueue<LogEvent>(capacity);
+        this.position = fromStart ? 0 : file.length();
+        this.poller = LocalExecutors.scheduler().scheduleWithFixedDelay(
+                this::triggerRead, 0, unit.toNanos(pollInterval), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the next event, waiting for one if necessary
+     *
+     * @param timeout How long to wait
+     * @param unit Unit of timeout
+     * @return next event, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LogEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return events.poll(timeout, unit);
+    }
+
+    /**
+     * Returns the next event, waiting until there is one
+     *
+     * @return next event
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LogEvent take() throws InterruptedException {
+        return events.take();
+    }
+
+    /**
+     * Moves the events available now into the given collection
+     *
+     * @param target Collection to add to
+     * @param max Most events to move
+     * @return number of events moved
+     */
+    public int drainTo(Collection<? super LogEvent> target, int max) {
+        return events.drainTo(target, max);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Stops following the file
+     */
+    public void close() {
+        closed = true;
+        poller.cancel(false);
+    }
+
+    /**
+     * Hands a read to the default executor, unless the previous one is still
+     * running
+     */
+    private void triggerRead() {
+        if (closed || !reading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            LocalExecutors.defaultExecutor().execute(() -> {
+                try {
+                    readAvailable();
+                } finally {
+                    reading.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            reading.set(false);
+        }
+    }
+
+    /**
+     * Reads what has been appended since the last call, as far as the queue
+     * has room.
+     */
+    synchronized void readAvailable() {
+        if (closed || !offerPending() || !file.isFile()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < position) {
+                /* Rotated or truncated */
+                position = 0;
+                partial.reset();
+            }
+
+            while (position < size && !closed) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                position += read;
+                buffer.flip();
+                split(buffer);
+                if (!offerPending()) {
+                    /* Queue is full, carry on once the consumer catches up */
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+            /* The file may be mid-rotation, try again on the next poll */
+        }
+    }
+
+    private void split(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                String line = new String(partial.toByteArray(), StandardCharsets.UTF_8);
+                partial.reset();
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                if (!line.isEmpty()) {
+                    pending.addLast(LogEvent.parse(line));
+                }
+            } else if (partial.size() < MAX_LINE_BYTES) {
+                partial.write(b);
+            }
+        }
+    }
+
+    private boolean offerPending() {
+        while (!pending.isEmpty()) {
+            if (!events.offer(pending.peekFirst())) {
+                return false;
+            }
+            pending.pollFirst();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,208 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Works out which BrowserStackLocal build runs on this host, without
+ * starting any process.
+ *
+ * The C library on Linux is taken from the ELF interpreter of the running
+ * JVM, read from the program headers of /proc/self/exe: a JVM linked against
+ * musl can only run the Alpine build. If there is no interpreter to go by,
+ * /etc/os-release is read instead.
+ */
+final class Platform {
+
+    static final File SELF_EXE = new File("/proc/self/exe");
+
+    static final File OS_RELEASE = new File("/etc/os-release");
+
+    private static final int PT_INTERP = 3;
+
+    // Longest interpreter path worth reading
+    private static final int MAX_INTERP_LENGTH = 4096;
+
+    private final String osName;
+    private final String arch;
+    private final boolean musl;
+
+    Platform(String osName, String osArch, boolean musl) {
+        this.osName = osName.toLowerCase(Locale.ROOT);
+        this.arch = arch(osArch);
+        this.musl = musl;
+    }
+
+    /**
+     * Detects the platform of this JVM
+     *
+     * @return platform
+     */
+    static Platform detect() {
+        String osName = System.getProperty("os.name");
+        boolean linux = osName.toLowerCase(Locale.ROOT).contains("linux");
+        return new Platform(osName, System.getProperty("os.arch"), linux && isMusl(SELF_EXE, OS_RELEASE));
+    }
+
+    /**
+     * Returns the name the binary for this platform is published under
+     *
+     * @return binary file name
+     * @throws LocalException if no binary is published for this platform
+     */
+    String getBinaryFileName() throws LocalException {
+        if (osName.contains("windows")) {
+            return "BrowserStackLocal.exe";
+        } else if (osName.contains("mac") || osName.contains("darwin")) {
+            return "BrowserStackLocal-darwin-x64";
+        } else if (!osName.contains("linux")) {
+            throw new LocalException("Failed to detect OS type");
+        }
+
+        if ("x64".equals(arch)) {
+            return musl ? "BrowserStackLocal-alpine" : "BrowserStackLocal-linux-x64";
+        } else if ("arm64".equals(arch) && !musl) {
+            return "BrowserStackLocal-linux-arm64";
+        } else if ("ia32".equals(arch) && !musl) {
+            return "BrowserStackLocal-linux-ia32";
+        }
+        throw new LocalException("No BrowserStackLocal binary for " + (musl ? "musl " : "") + "Linux on "
+                + (arch != null ? arch : "this architecture"));
+    }
+
+    String getArch() {
+        return arch;
+    }
+
+    boolean isMusl() {
+        return musl;
+    }
+
+    /**
+     * Maps a value of the os.arch property to the architecture binaries are
+     * published for
+     *
+     * @param osArch Value of os.arch
+     * @return "x64", "arm64" or "ia32", null for any other architecture
+     */
+    static String arch(String osArch) {
+        String value = osArch != null ? osArch.toLowerCase(Locale.ROOT) : "";
+        if (value.equals("amd64") || value.equals("x86_64") || value.equals("x64") || value.equals("em64t")) {
+            return "x64";
+        } else if (value.equals("aarch64") || value.equals("arm64")) {
+            return "arm64";
+        } else if (value.equals("x86") || value.equals("i386") || value.equals("i486") || value.equals("i586")
+                || value.equals("i686") || value.equals("ia32")) {
+            return "ia32";
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the given executable, or failing that the distribution,
+     * uses musl as its C library
+     *
+     * @param exe Executable to inspect
+     * @param osRelease os-release file
+     * @return true for musl
+     */
+    static boolean isMusl(File exe, File osRelease) {
+        String interpreter = elfInterpreter(exe);
+        if (interpreter != null) {
+            return interpreter.contains("musl");
+        }
+        Map<String, String> release = readOsRelease(osRelease);
+        return "alpine".equals(release.get("ID"))
+                || (release.containsKey("ID_LIKE") && release.get("ID_LIKE").contains("alpine"));
+    }
+
+    /**
+     * Reads the PT_INTERP entry from the program headers of an ELF file
+     *
+     * @param file ELF file
+     * @return interpreter path, null if the file is not ELF or is statically linked
+     */
+    static String elfInterpreter(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(64);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 52 || header.get(0) != 0x7f || header.get(1) != 'E'
+                    || header.get(2) != 'L' || header.get(3) != 'F') {
+                return null;
+            }
+            boolean is64 = header.get(4) == 2;
+            header.order(header.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            if (is64 && header.remaining() < 64) {
+                return null;
+            }
+
+            long phoff = is64 ? header.getLong(0x20) : header.getInt(0x1C) & 0xffffffffL;
+            int phentsize = header.getShort(is64 ? 0x36 : 0x2A) & 0xffff;
+            int phnum = header.getShort(is64 ? 0x38 : 0x2C) & 0xffff;
+
+            ByteBuffer entry = ByteBuffer.allocate(phentsize).order(header.order());
+            for (int i = 0; i < phnum; i++) {
+                entry.clear();
+                if (channel.read(entry, phoff + (long) i * phentsize) < phentsize) {
+                    return null;
+                }
+                if (entry.getInt(0) != PT_INTERP) {
+                    continue;
+                }
+                long offset = is64 ? entry.getLong(0x08) : entry.getInt(0x04) & 0xffffffffL;
+                long size = is64 ? entry.getLong(0x20) : entry.getInt(0x10) & 0xffffffffL;
+                if (size <= 0 || size > MAX_INTERP_LENGTH) {
+                    return null;
+                }
+                ByteBuffer path = ByteBuffer.allocate((int) size);
+                channel.read(path, offset);
+                String interpreter = new String(path.array(), 0, path.position(), StandardCharsets.UTF_8);
+                int nul = interpreter.indexOf('\0');
+                return nul >= 0 ? interpreter.substring(0, nul) : interpreter;
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an os-release file
+     *
+     * @param file os-release file
+     * @return its variables with quotes removed, empty if it cannot be read
+     */
+    static Map<String, String> readOsRelease(File file) {
+        Map<String, String> values = new HashMap<String, String>();
+        if (!file.isFile()) {
+            return values;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                int equals = line.indexOf('=');
+                if (line.startsWith("#") || equals <= 0) {
+                    continue;
+                }
+                String value = line.substring(equals + 1).trim();
+                if (value.length() >= 2 && (value.startsWith("\"") || value.startsWith("'"))
+                        && value.charAt(value.length() - 1) == value.charAt(0)) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                values.put(line.substring(0, equals).trim(), value);
+            }
+        } catch (IOException e) {
+            /* Treated as an unknown distribution */
+        }
+        return values;
+    }
+}
@@ -0,0 +1,78 @@
+package com.browserstack.local;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Launches the processes {@link Local} and the binary checks run: the
+ * BrowserStackLocal daemon commands and the binary's --version check.
+ *
+ * {@link DefaultProcessLauncher} forks real processes. {@link FakeDaemonLauncher}
+ * answers in memory, for testing tunnel orchestration without a binary or
+ * a network. A launcher is passed to {@link Local#Local(ProcessLauncher)}.
+ */
+public interface ProcessLauncher {
+
+    /**
+     * Starts the given command
+     *
+     * @param command Command and its arguments
+     * @return {@link Local.LocalProcess} for managing the launched process
+     * @throws IOException if the command cannot be started
+     */
+    Local.LocalProcess launch(List<String> command) throws IOException;
+
+    /**
+     * Checks if the daemon with the given pid is running
+     *
+     * By default this uses a fork-free check where the runtime has one and
+     * otherwise asks ps or tasklist through {@link #launch(List)}.
+     *
+     * @param pid pid of the daemon
+     * @return true if it is running
+     * @throws Exception if the check fails
+     * @link http://stackoverflow.com/a/26423642/941691
+     */
+    default boolean isAlive(int pid) throws Exception {
+        Boolean alive = ProcessLiveness.isAlive(pid);
+        if (alive != null) {
+            return alive;
+        }
+
+        List<String> cmd = new ArrayList<String>();
+        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
+            //tasklist exit code is always 0. Parse output
+            //findstr exit code 0 if found pid, 1 if it doesn't
+            cmd.add("cmd");
+            cmd.add("/c");
+            cmd.add("\"tasklist /FI \"PID eq " + pid + "\" | findstr " + pid + "\"");
+        }
+        else {
+            //ps exit code 0 if process exists, 1 if it doesn't
+            cmd.add("/bin/sh");
+            cmd.add("-c");
+            cmd.add("ps");
+            cmd.add("-o");
+            cmd.add("pid=");
+            cmd.add("|");
+            cmd.add("grep");
+            cmd.add("-w");
+            cmd.add(String.valueOf(pid));
+        }
+
+        // 0 is the default exit code which means the process exists
+        return launch(cmd).waitFor() == 0;
+    }
+
+    /**
+     * Returns a future completed once the daemon with the given pid exits
+     *
+     * @param pid pid of the daemon
+     * @return future completed when the daemon is gone
+     */
+    default CompletableFuture<Void> onExit(final int pid) {
+        return ProcessLiveness.onExit(pid, () -> isAlive(pid));
+    }
+}
@@ -0,0 +1,133 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks whether a process is alive without forking a helper process.
+ *
+ * On Java 9 and later this goes through ProcessHandle, looked up reflectively
+ * since the library still targets Java 8. On older runtimes Linux hosts fall
+ * back to checking /proc/&lt;pid&gt;; elsewhere the answer is unknown and the
+ * caller has to use its own probe.
+ */
+final class ProcessLiveness {
+
+    static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private static final Method handleOf;
+    private static final Method handleIsAlive;
+    private static final Method handleOnExit;
+
+    private static final boolean procFs = new File("/proc/self").isDirectory();
+
+    static {
+        Method of = null, isAlive = null, onExit = null;
+        try {
+            Class<?> handle = Class.forName("java.lang.ProcessHandle");
+            of = handle.getMethod("of", long.class);
+            isAlive = handle.getMethod("isAlive");
+            onExit = handle.getMethod("onExit");
+        } catch (Exception e) {
+            of = null;
+        }
+        handleOf = of;
+        handleIsAlive = isAlive;
+        handleOnExit = onExit;
+    }
+
+    private ProcessLiveness() {
+    }
+
+    /**
+     * Checks whether the process with the given pid is alive.
+     *
+     * @param pid pid of the process
+     * @return whether it is alive, or null if this cannot be told without forking
+     */
+    static Boolean isAlive(long pid) {
+        if (handleOf != null) {
+            try {
+                Optional<?> handle = (Optional<?>) handleOf.invoke(null, pid);
+                return handle.isPresent() && (Boolean) handleIsAlive.invoke(handle.get());
+            } catch (Exception ignored) {
+                /* Fall through to the /proc check */
+            }
+        }
+        if (procFs) {
+            return new File("/proc/" + pid).exists();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a future completed once the process with the given pid exits.
+     *
+     * Uses ProcessHandle.onExit where available, otherwise polls isAlive, or
+     * the fallback probe when isAlive cannot tell, every second. The shared
+     * scheduler only times the polls, which may fork and so run on the
+     * default executor, one at a time.
+     *
+     * @param pid pid of the process
+     * @param fallbackProbe Returns whether the process is alive, used when no fork-free check exists
+     * @return future completed when the process is gone
+     */
+    static CompletableFuture<Void> onExit(final long pid, final Callable<Boolean> fallbackProbe) {
+        final CompletableFuture<Void> exited = new CompletableFuture<Void>();
+        if (handleOf != null) {
+            try {
+                Optional<?> handle = (Optional<?>) handleOf.invoke(null, pid);
+                if (!handle.isPresent()) {
+                    exited.complete(null);
+                    return exited;
+                }
+                CompletableFuture<?> onExit = (CompletableFuture<?>) handleOnExit.invoke(handle.get());
+                onExit.whenComplete((h, e) -> exited.complete(null));
+                return exited;
+            } catch (Exception ignored) {
+                /* Fall back to polling */
+            }
+        }
+
+        final AtomicReference<ScheduledFuture<?>> poll = new AtomicReference<ScheduledFuture<?>>();
+        final AtomicBoolean probing = new AtomicBoolean();
+        poll.set(LocalExecutors.scheduler().scheduleWithFixedDelay(() -> {
+            if (exited.isDone() || !probing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                LocalExecutors.defaultExecutor().execute(() -> {
+                    try {
+                        Boolean alive = isAlive(pid);
+                        if (alive == null) {
+                            alive = fallbackProbe.call();
+                        }
+                        if (!alive) {
+                            exited.complete(null);
+                        }
+                    } catch (Exception e) {
+                        exited.completeExceptionally(e);
+                    } finally {
+                        probing.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                probing.set(false);
+            }
+        }, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+        exited.whenComplete((v, e) -> {
+            ScheduledFuture<?> task = poll.get();
+            if (task != null) {
+                task.cancel(false);
+            }
+        });
+        return exited;
+    }
+}
@@ -0,0 +1,241 @@
+package com.browserstack.local;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Captures the stdout and stderr of a child process.
+ *
+ * Both streams are drained at the same time, so a child that fills its stderr
+ * pipe before closing stdout cannot block. Line breaks are dropped, matching
+ * the text the line by line readers used to collect, and each stream keeps at
+ * most {@link #MAX_CHARS} characters.
+ *
+ * The daemon's JSON state message is recognised while it streams in, so
+ * {@link #awaitState()} returns as soon as a complete object with a "state"
+ * field has been read instead of waiting for the streams to close.
+ */
+final class ProcessOutput {
+
+    static final int MAX_CHARS = 64 * 1024;
+
+    private final Capture stdout = new Capture();
+    private final Capture stderr = new Capture();
+    private final CountDownLatch closed = new CountDownLatch(2);
+    private final CompletableFuture<JSONObject> state = new CompletableFuture<JSONObject>();
+
+    private ProcessOutput() {
+    }
+
+    /**
+     * Starts draining both streams in the background.
+     *
+     * @param out stdout of the process
+     * @param err stderr of the process
+     * @return the capture
+     */
+    static ProcessOutput capture(InputStream out, InputStream err) {
+        ProcessOutput output = new ProcessOutput();
+        output.pump(out, output.stdout);
+        output.pump(err, output.stderr);
+        return output;
+    }
+
+    /**
+     * Waits for the daemon's state message.
+     *
+     * If the streams close without a recognisable message, the whole of stdout
+     * (or stderr if stdout is empty) is parsed instead.
+     *
+     * @return the JSON state message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    JSONObject awaitState() throws InterruptedException {
+        try {
+            return awaitState(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits at most the given time for the daemon's state message.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return the JSON state message
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if no message arrived in time
+     */
+    JSONObject awaitState(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            return unit.toNanos(timeout) == Long.MAX_VALUE ? state.get() : state.get(timeout, unit);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Waits for both streams to close and returns what was read from stdout.
+     *
+     * @return stdout without line breaks
+     * @throws InterruptedException if interrupted while waiting
+     */
+    String awaitStdout() throws InterruptedException {
+        closed.await();
+        return stdout.text();
+    }
+
+    /**
+     * Waits at most the given time for both streams to close and returns
+     * what was read from stdout.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return stdout without line breaks
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if the streams are still open
+     */
+    String awaitStdout(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!closed.await(timeout, unit)) {
+            throw new TimeoutException("Process output still open after " + unit.toMillis(timeout) + " ms");
+        }
+        return stdout.text();
+    }
+
+    String getStdout() {
+        return stdout.text();
+    }
+
+    String getStderr() {
+        return stderr.text();
+    }
+
+    private void pump(InputStream in, Capture capture) {
+        LocalExecutors.defaultExecutor().execute(() -> {
+            char[] buffer = new char[4096];
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    JSONObject message = capture.append(buffer, n);
+                    if (message != null) {
+                        state.complete(message);
+                    }
+                }
+            } catch (IOException ignored) {
+                /* The stream closes abruptly if the process is killed */
+            } finally {
+                closed.countDown();
+                if (closed.getCount() == 0) {
+                    completeFromText();
+                }
+            }
+        });
+    }
+
+    private void completeFromText() {
+        if (state.isDone()) {
+            return;
+        }
+        String out = stdout.text();
+        try {
+            state.complete(new JSONObject(!out.equals("") ? out : stderr.text()));
+        } catch (JSONException e) {
+            state.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Text read from one stream, plus a scanner that picks out top level JSON
+     * objects as they complete.
+     */
+    private static final class Capture {
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder object = new StringBuilder();
+        private int depth = 0;
+        private boolean inString = false;
+        private boolean escaped = false;
+
+        synchronized JSONObject append(char[] chars, int length) {
+            JSONObject message = null;
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                if (c == '\n' || c == '\r') {
+                    continue;
+                }
+                if (text.length() < MAX_CHARS) {
+                    text.append(c);
+                }
+
+                JSONObject parsed = scan(c);
+                if (message == null && parsed != null && parsed.has("state")) {
+                    message = parsed;
+                }
+            }
+            return message;
+        }
+
+        private JSONObject scan(char c) {
+            if (depth == 0) {
+                if (c != '{') {
+                    return null;
+                }
+                object.setLength(0);
+            }
+            if (object.length() >= MAX_CHARS) {
+                /* Too large to be a state message, stop tracking it */
+                depth = 0;
+                inString = false;
+                escaped = false;
+                return null;
+            }
+            object.append(c);
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                return null;
+            }
+
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    try {
+                        return new JSONObject(object.toString());
+                    } catch (JSONException e) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        synchronized String text() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.browserstack.local;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * One daemon shared by every Local instance on the host that starts it with
+ * the same options, across JVMs.
+ *
+ * A state file per options fingerprint under ~/.browserstack/daemons records
+ * the daemon's pid and the instances holding it. Reads and writes are guarded
+ * by one {@link BinaryLock} for the whole directory, so concurrent starts
+ * collapse into one spawn and the state file of a stopped daemon can be
+ * deleted without leaving a lock file behind per option set. The daemon is
+ * stopped when its last holder detaches.
+ * Holders whose JVM has died are dropped whenever the state is read.
+ */
+final class SharedDaemon {
+
+    static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".browserstack/daemons");
+
+    // Pid of this JVM, recorded with each holder so holders of dead JVMs can be dropped
+    private static final String JVM_PID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+
+    // Guards every state file in the directory, as "daemons.lock"
+    static final String LOCK_NAME = "daemons";
+
+    private final File lockTarget;
+    private final File stateFile;
+    private final String fingerprint;
+    private final ProcessLauncher launcher;
+    private final String holder = JVM_PID + ":" + UUID.randomUUID();
+
+    SharedDaemon(File directory, List<String> arguments, ProcessLauncher launcher) {
+        this.fingerprint = BinaryDownloader.toHex(BinaryDownloader.newDigest()
+                .digest(arguments.toString().getBytes(StandardCharsets.UTF_8)));
+        this.lockTarget = new File(directory, LOCK_NAME);
+        this.stateFile = new File(directory, fingerprint + ".json");
+        this.launcher = launcher;
+    }
+
+    /**
+     * Attaches to the shared daemon, starting it if none is running
+     *
+     * @param spawn Starts the daemon and returns its pid
+     * @return pid of the shared daemon
+     * @throws Exception if the daemon has to be started and fails to
+     */
+    int attach(Callable<Integer> spawn) throws Exception {
+        return attach(spawn, Deadline.NONE);
+    }
+
+    /**
+     * Attaches to the shared daemon, waiting for another start of it at most
+     * until the deadline
+     *
+     * @param spawn Starts the daemon and returns its pid
+     * @param deadline Time by which the start has to be done
+     * @return pid of the shared daemon
+     * @throws Exception if the daemon has to be started and fails to, or the deadline passes
+     */
+    int attach(Callable<Integer> spawn, Deadline deadline) throws Exception {
+        stateFile.getParentFile().mkdirs();
+        try (BinaryLock lock = lock(deadline)) {
+            JSONObject state = readState();
+            int pid = state != null ? state.optInt("pid") : 0;
+            JSONArray holders = state != null ? liveHolders(state) : new JSONArray();
+
+            if (pid == 0 || !launcher.isAlive(pid)) {
+                pid = spawn.call();
+                holders = new JSONArray();
+            }
+
+            holders.put(holder);
+            writeState(pid, holders);
+            return pid;
+        }
+    }
+
+    /**
+     * Detaches from the shared daemon, stopping it if this was the last holder
+     *
+     * @param stop Stops the daemon
+     * @return true if the daemon was stopped
+     * @throws Exception if stopping the daemon fails
+     */
+    boolean detach(Callable<Void> stop) throws Exception {
+        try (BinaryLock lock = BinaryLock.acquire(lockTarget)) {
+            JSONObject state = readState();
+            if (state == null) {
+                return false;
+            }
+
+            JSONArray holders = liveHolders(state);
+            for (int i = 0; i < holders.length(); i++) {
+                if (holder.equals(holders.getString(i))) {
+                    holders.remove(i);
+                    break;
+                }
+            }
+
+            if (holders.length() > 0) {
+                writeState(state.getInt("pid"), holders);
+                return false;
+            }
+            stop.call();
+            stateFile.delete();
+            return true;
+        }
+    }
+
+    private BinaryLock lock(Deadline deadline) throws IOException, LocalException {
+        try {
+            return BinaryLock.acquire(lockTarget, deadline);
+        } catch (IOException e) {
+            if (deadline.isExpired()) {
+                throw deadline.expired(LocalMetricsListener.Phase.HANDSHAKE);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of instances holding the daemon
+     *
+     * @return holder count, 0 if no shared daemon is recorded
+     */
+    int holderCount() {
+        JSONObject state = readState();
+        return state != null ? liveHolders(state).length() : 0;
+    }
+
+    File getStateFile() {
+        return stateFile;
+    }
+
+    private static JSONArray liveHolders(JSONObject state) {
+        JSONArray live = new JSONArray();
+        JSONArray holders = state.optJSONArray("holders");
+        if (holders == null) {
+            return live;
+        }
+        for (int i = 0; i < holders.length(); i++) {
+            String holder = holders.optString(i);
+            if (!Boolean.FALSE.equals(jvmAlive(holder))) {
+                live.put(holder);
+            }
+        }
+        return live;
+    }
+
+    private static Boolean jvmAlive(String holder) {
+        String jvm = holder.substring(0, Math.max(0, holder.indexOf(':')));
+        if (jvm.equals(JVM_PID)) {
+            return true;
+        }
+        try {
+            return ProcessLiveness.isAlive(Long.parseLong(jvm));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private JSONObject readState() {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    private void writeState(int pid, JSONArray holders) throws IOException {
+        JSONObject state = new JSONObject();
+        state.put("pid", pid);
+        state.put("fingerprint", fingerprint);
+        state.put("holders", holders);
+
+        AtomicFiles.write(stateFile, state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
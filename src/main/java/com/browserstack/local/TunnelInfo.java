@@ -0,0 +1,49 @@
+package com.browserstack.local;
+
+/**
+ * Describes a tunnel started by {@link Local}.
+ */
+public final class TunnelInfo {
+
+    private final int pid;
+    private final String localIdentifier;
+    private final String binaryPath;
+
+    TunnelInfo(int pid, String localIdentifier, String binaryPath) {
+        this.pid = pid;
+        this.localIdentifier = localIdentifier;
+        this.binaryPath = binaryPath;
+    }
+
+    /**
+     * Returns the pid of the BrowserStackLocal daemon
+     *
+     * @return pid, or 0 if no daemon was started
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Returns the local identifier the tunnel was started with
+     *
+     * @return local identifier, or null if none was given
+     */
+    public String getLocalIdentifier() {
+        return localIdentifier;
+    }
+
+    /**
+     * Returns the path of the binary that runs the tunnel
+     *
+     * @return binary path
+     */
+    public String getBinaryPath() {
+        return binaryPath;
+    }
+
+    @Override
+    public String toString() {
+        return "TunnelInfo{pid=" + pid + ", localIdentifier=" + localIdentifier + ", binaryPath=" + binaryPath + "}";
+    }
+}
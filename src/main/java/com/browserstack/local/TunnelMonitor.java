@@ -0,0 +1,281 @@
+package com.browserstack.local;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches a running Local instance and starts it again when its daemon dies
+ * or fails a health check.
+ *
+ * Exits are picked up as they happen through {@link Local#onExit()}, without
+ * polling. A failed restart is retried with exponential backoff. Once more
+ * restarts than allowed have been attempted within the window, the circuit
+ * opens and the monitor gives up, so a tunnel that cannot stay up does not
+ * keep restarting forever. Stopping the Local instance is never mistaken for
+ * a crash.
+ *
+ * <pre>
+ * TunnelMonitor monitor = new TunnelMonitor(bsLocal)
+ *         .addListener((event, cause) -&gt; System.out.println("Tunnel " + event))
+ *         .start();
+ * ...
+ * monitor.close();
+ * bsLocal.stop();
+ * </pre>
+ */
+public class TunnelMonitor implements Closeable {
+
+    /**
+     * What happened to the monitored tunnel
+     */
+    public enum Event {
+        /** The daemon exited without being asked to stop */
+        EXITED,
+        /** The health check failed */
+        UNHEALTHY,
+        /** The daemon was started again */
+        RESTARTED,
+        /** Starting the daemon again failed, it will be retried */
+        RESTART_FAILED,
+        /** Too many restarts within the window, the monitor has given up */
+        CIRCUIT_OPEN
+    }
+
+    /**
+     * Receives the events of a monitored tunnel. Listeners run on background
+     * threads and should return quickly.
+     */
+    public interface Listener {
+        /**
+         * @param event What happened
+         * @param cause Failure behind the event, or null
+         */
+        void onEvent(Event event, Throwable cause);
+    }
+
+    static final Backoff RESTART_BACKOFF = new Backoff(Integer.MAX_VALUE, 1000, 60000);
+
+    private final Local local;
+    private final int maxRestarts;
+    private final long windowNanos;
+    private final Backoff backoff;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Deque<Long> attempts = new ArrayDeque<Long>();
+    private final AtomicBoolean restarting = new AtomicBoolean(false);
+    private final AtomicInteger restarts = new AtomicInteger();
+
+    private Callable<Boolean> healthCheck;
+    private long healthIntervalNanos;
+    private ScheduledFuture<?> healthTask;
+    private volatile Throwable lastFailure;
+    private volatile boolean circuitOpen = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a monitor that allows 5 restarts every 10 minutes
+     *
+     * @param local Local instance to watch
+     */
+    public TunnelMonitor(Local local) {
+        this(local, 5, 10, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a monitor
+     *
+     * @param local Local instance to watch
+     * @param maxRestarts Restarts allowed within the window before the circuit opens
+     * @param window Length of the window
+     * @param unit Unit of window
+     */
+    public TunnelMonitor(Local local, int maxRestarts, long window, TimeUnit unit) {
+        this(local, maxRestarts, window, unit, RESTART_BACKOFF);
+    }
+
+    TunnelMonitor(Local local, int maxRestarts, long window, TimeUnit unit, Backoff backoff) {
+        if (maxRestarts < 1) {
+            throw new IllegalArgumentException("maxRestarts must be at least 1");
+        }
+        this.local = local;
+        this.maxRestarts = maxRestarts;
+        this.windowNanos = unit.toNanos(window);
+        this.backoff = backoff;
+    }
+
+    /**
+     * Adds a listener for the events of the tunnel
+     *
+     * @param listener Listener
+     * @return this monitor
+     */
+    public TunnelMonitor addListener(Listener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Sets a check run periodically while the daemon is up, for example one
+     * that looks for errors in the daemon's log file. The tunnel is restarted
+     * when the check returns false or throws.
+     *
+     * @param check Health check
+     * @param interval Time between checks
+     * @param unit Unit of interval
+     * @return this monitor
+     */
+    public synchronized TunnelMonitor setHealthCheck(Callable<Boolean> check, long interval, TimeUnit unit) {
+        this.healthCheck = check;
+        this.healthIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Starts watching the tunnel
+     *
+     * @return this monitor
+     * @throws IllegalStateException if the Local instance is not running
+     */
+    public synchronized TunnelMonitor start() {
+        int pid = local.pid;
+        if (pid == 0) {
+            throw new IllegalStateException("Local instance is not running");
+        }
+        watch(pid);
+        if (healthCheck != null && healthTask == null) {
+            healthTask = LocalExecutors.scheduler().scheduleWithFixedDelay(
+                    this::probe, healthIntervalNanos, healthIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether the monitor gave up after too many restarts
+     *
+     * @return true if the circuit is open
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    /**
+     * Returns the number of successful restarts
+     *
+     * @return restart count
+     */
+    public int getRestartCount() {
+        return restarts.get();
+    }
+
+    /**
+     * Stops watching. The tunnel itself is left running.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (healthTask != null) {
+            healthTask.cancel(false);
+        }
+    }
+
+    private void watch(final int pid) {
+        local.onExit().thenRun(() -> onExit(pid));
+    }
+
+    private void onExit(int pid) {
+        if (closed || local.stopRequested || local.pid != pid || restarting.get()) {
+            return;
+        }
+        emit(Event.EXITED, null);
+        restart(pid);
+    }
+
+    private void probe() {
+        int pid = local.pid;
+        if (closed || circuitOpen || local.stopRequested || pid == 0 || restarting.get()) {
+            return;
+        }
+
+        Throwable failure = null;
+        boolean healthy;
+        try {
+            healthy = Boolean.TRUE.equals(healthCheck.call());
+        } catch (Exception e) {
+            healthy = false;
+            failure = e;
+        }
+        if (!healthy) {
+            emit(Event.UNHEALTHY, failure);
+            restart(pid);
+        }
+    }
+
+    private void restart(int pid) {
+        if (restarting.compareAndSet(false, true)) {
+            attempt(pid, 0);
+        }
+    }
+
+    private void attempt(final int pid, final int attempt) {
+        if (closed || local.stopRequested) {
+            restarting.set(false);
+            return;
+        }
+        if (!admit()) {
+            circuitOpen = true;
+            restarting.set(false);
+            emit(Event.CIRCUIT_OPEN, lastFailure);
+            return;
+        }
+
+        LocalExecutors.defaultExecutor().execute(() -> {
+            try {
+                if (!local.restart(pid)) {
+                    /* Stopped on request in the meantime */
+                    restarting.set(false);
+                    return;
+                }
+                restarts.incrementAndGet();
+                restarting.set(false);
+                emit(Event.RESTARTED, null);
+                watch(local.pid);
+            } catch (Throwable t) {
+                lastFailure = t;
+                emit(Event.RESTART_FAILED, t);
+                LocalExecutors.scheduler().schedule(() -> attempt(pid, attempt + 1),
+                        backoff.delayMillis(attempt), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Records a restart attempt if the window has room for it
+     */
+    private synchronized boolean admit() {
+        long now = System.nanoTime();
+        while (!attempts.isEmpty() && now - attempts.peekFirst() > windowNanos) {
+            attempts.pollFirst();
+        }
+        if (attempts.size() >= maxRestarts) {
+            return false;
+        }
+        attempts.addLast(now);
+        return true;
+    }
+
+    private void emit(Event event, Throwable cause) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(event, cause);
+            } catch (RuntimeException ignored) {
+                /* A faulty listener must not stop the monitor */
+            }
+        }
+    }
+}
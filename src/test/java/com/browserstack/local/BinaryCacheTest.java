@@ -0,0 +1,82 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCacheTest {
+    private File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        BinaryCache.clear();
+        binary = File.createTempFile("BrowserStackLocal", ".bin");
+        write(binary, "v1");
+    }
+
+    @Test
+    public void testMarkValidated() throws Exception {
+        assertFalse(BinaryCache.isValidated(binary.getPath()));
+        BinaryCache.markValidated(binary.getPath());
+        assertTrue(BinaryCache.isValidated(binary.getPath()));
+    }
+
+    @Test
+    public void testInvalidatedWhenFileChanges() throws Exception {
+        BinaryCache.markValidated(binary.getPath());
+        write(binary, "version2");
+        assertFalse(BinaryCache.isValidated(binary.getPath()));
+    }
+
+    @Test
+    public void testInvalidatedWhenFileDeleted() throws Exception {
+        BinaryCache.markValidated(binary.getPath());
+        assertTrue(binary.delete());
+        assertFalse(BinaryCache.isValidated(binary.getPath()));
+    }
+
+    @Test
+    public void testExpiredEntry() throws Exception {
+        BinaryCache.setTtl(0, TimeUnit.MILLISECONDS);
+        BinaryCache.markValidated(binary.getPath());
+        assertFalse(BinaryCache.isValidated(binary.getPath()));
+    }
+
+    @Test
+    public void testStampSharedWithOtherProcesses() throws Exception {
+        BinaryCache.markValidated(binary.getPath());
+        BinaryCache.clear();
+        assertTrue(BinaryCache.isValidated(binary.getPath()));
+
+        BinaryCache.clear();
+        write(binary, "version2");
+        assertFalse(BinaryCache.isValidated(binary.getPath()));
+    }
+
+    @Test
+    public void testLockSharedPerPath() throws Exception {
+        String relative = binary.getParent() + "/./" + binary.getName();
+        assertSame(BinaryCache.lockFor(binary.getPath()), BinaryCache.lockFor(relative));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BinaryCache.setTtl(BinaryCache.DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+        BinaryCache.invalidate(binary.getPath());
+        binary.delete();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content.getBytes("utf-8"));
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryDownloaderTest {
+    private static final Backoff FAST_RETRY = new Backoff(4, 1, 5);
+
+    private HttpServer server;
+    private byte[] payload;
+    private File target;
+    private String etag = "\"v1\"";
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final CountDownLatch unstall = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        payload = new byte[300 * 1024];
+        new Random(42).nextBytes(payload);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/plain", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, payload.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(payload);
+                }
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream os = new GZIPOutputStream(exchange.getResponseBody())) {
+                    os.write(payload);
+                }
+            }
+        });
+        server.createContext("/flaky", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+                int start = 0;
+                if (range != null && etag.equals(ifRange)) {
+                    rangeRequests.incrementAndGet();
+                    start = Integer.parseInt(range.replaceAll("bytes=(\\d+)-", "$1"));
+                    exchange.getResponseHeaders().add("Content-Range",
+                            "bytes " + start + "-" + (payload.length - 1) + "/" + payload.length);
+                    exchange.sendResponseHeaders(206, payload.length - start);
+                } else {
+                    exchange.sendResponseHeaders(200, payload.length);
+                }
+
+                OutputStream os = exchange.getResponseBody();
+                int end = payload.length;
+                if (drops.getAndDecrement() > 0) {
+                    /* Drop the connection part way through the body */
+                    end = start + (payload.length - start) / 2;
+                }
+                os.write(payload, start, end - start);
+                os.flush();
+                exchange.close();
+            }
+        });
+        server.createContext("/ranged", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                exchange.getResponseHeaders().add("ETag", etag);
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().add("Content-Length", String.valueOf(payload.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                    return;
+                }
+
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                rangeRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + payload.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(payload, start, end - start + 1);
+                }
+            }
+        });
+        server.start();
+
+        server.createContext("/stalled", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, payload.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(payload, 0, payload.length / 2);
+                os.flush();
+                try {
+                    unstall.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/drip", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, payload.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    for (int i = 0; i < payload.length; i++) {
+                        os.write(payload[i]);
+                        os.flush();
+                        Thread.sleep(100);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    /* Client gave up */
+                }
+            }
+        });
+        target = new File(Files.createTempDirectory("bslocal").toFile(), "BrowserStackLocal");
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        String digest = BinaryDownloader.download(url("/plain"), target, null);
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(sha256(payload), digest);
+        assertTrue(target.canExecute());
+        assertFalse(BinaryDownloader.partFile(target).exists());
+    }
+
+    @Test
+    public void testGzipDownload() throws Exception {
+        String digest = BinaryDownloader.download(url("/gzip"), target, sha256(payload));
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(sha256(payload), digest);
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        byte[] other = Arrays.copyOf(payload, payload.length);
+        other[0]++;
+
+        try {
+            BinaryDownloader.download(url("/plain"), target, sha256(other));
+            fail("Expected checksum mismatch");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+        assertFalse(target.exists());
+        assertFalse(BinaryDownloader.partFile(target).exists());
+    }
+
+    @Test
+    public void testResumeAfterDroppedConnection() throws Exception {
+        drops.set(2);
+
+        String digest = BinaryDownloader.download(url("/flaky"), target, sha256(payload), 1, FAST_RETRY);
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(sha256(payload), digest);
+        assertEquals(3, requests.get());
+        assertEquals(2, rangeRequests.get());
+        assertFalse(BinaryDownloader.partFile(target).exists());
+    }
+
+    @Test
+    public void testMetricsCountRetriesAndResumedBytesOnce() throws Exception {
+        drops.set(2);
+        LocalMetrics metrics = new LocalMetrics();
+
+        BinaryDownloader.download(url("/flaky"), target, sha256(payload), 1, FAST_RETRY, metrics);
+
+        assertEquals(2, metrics.count(LocalMetrics.RETRIES, "phase", "download"));
+        assertEquals(payload.length, metrics.count(LocalMetrics.DOWNLOADED_BYTES));
+    }
+
+    @Test
+    public void testPartialFileKeptWhenRetriesExhausted() throws Exception {
+        drops.set(Integer.MAX_VALUE);
+
+        try {
+            BinaryDownloader.download(url("/flaky"), target, null, 1, FAST_RETRY);
+            fail("Expected download to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals(FAST_RETRY.getMaxAttempts(), requests.get());
+        assertFalse(target.exists());
+        assertTrue(BinaryDownloader.partFile(target).length() > 0);
+
+        drops.set(0);
+        BinaryDownloader.download(url("/flaky"), target, sha256(payload), 1, FAST_RETRY);
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testRestartWhenBinaryChanged() throws Exception {
+        drops.set(1);
+        try {
+            BinaryDownloader.download(url("/flaky"), target, null, 1, new Backoff(1, 0, 0));
+            fail("Expected download to fail");
+        } catch (IOException expected) {
+        }
+
+        etag = "\"v2\"";
+        BinaryDownloader.download(url("/flaky"), target, sha256(payload), 1, FAST_RETRY);
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        payload = new byte[(int) (4 * BinaryDownloader.MIN_SEGMENT_SIZE + 17)];
+        new Random(7).nextBytes(payload);
+
+        String digest = BinaryDownloader.download(url("/ranged"), target, sha256(payload), 4, FAST_RETRY);
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(sha256(payload), digest);
+        assertEquals(4, rangeRequests.get());
+        assertFalse(BinaryDownloader.partFile(target).exists());
+    }
+
+    @Test
+    public void testSegmentedFallsBackWithoutRangeSupport() throws Exception {
+        String digest = BinaryDownloader.download(url("/plain"), target, null, 4, FAST_RETRY);
+
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+        assertEquals(sha256(payload), digest);
+    }
+
+    @Test(timeout = 30000)
+    public void testStalledDownloadGivesUpAtDeadline() throws Exception {
+        long started = System.nanoTime();
+        try {
+            BinaryDownloader.download(url("/stalled"), target, null, 1, FAST_RETRY, LocalMetricsListener.NONE,
+                    Deadline.after(500, TimeUnit.MILLISECONDS));
+            fail("Expected the download to time out");
+        } catch (IOException expected) {
+        } finally {
+            unstall.countDown();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 5000);
+        assertFalse(target.exists());
+    }
+
+    @Test(timeout = 30000)
+    public void testTricklingDownloadGivesUpAtDeadline() throws Exception {
+        long started = System.nanoTime();
+        try {
+            BinaryDownloader.download(url("/drip"), target, null, 1, FAST_RETRY, LocalMetricsListener.NONE,
+                    Deadline.after(1, TimeUnit.SECONDS));
+            fail("Expected the download to time out");
+        } catch (BinaryDownloader.DeadlineExceededException expected) {
+        }
+        /* Every read completes well within the read timeout, only the deadline stops it */
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 3000);
+        assertFalse(target.exists());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        unstall.countDown();
+        server.stop(0);
+        target.delete();
+        BinaryDownloader.partFile(target).delete();
+        new File(target.getPath() + ".part.etag").delete();
+        target.getParentFile().delete();
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static String sha256(byte[] bytes) {
+        return BinaryDownloader.toHex(BinaryDownloader.newDigest().digest(bytes));
+    }
+}
@@ -0,0 +1,87 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryLockTest {
+    private File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        binary = File.createTempFile("BrowserStackLocal", ".bin");
+    }
+
+    @Test
+    public void testLockIsExclusive() throws Exception {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                try (BinaryLock lock = BinaryLock.acquire(binary)) {
+                    acquired.countDown();
+                } catch (Exception ignored) {
+                }
+            }
+        };
+
+        try (BinaryLock lock = BinaryLock.acquire(binary)) {
+            waiter.start();
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    public void testLockIsReleasedAfterClose() throws Exception {
+        BinaryLock.acquire(binary).close();
+        BinaryLock lock = BinaryLock.acquire(binary);
+        lock.close();
+        assertTrue(new File(binary.getPath() + ".lock").exists());
+    }
+
+    @Test(timeout = 10000)
+    public void testAcquireGivesUpAtDeadline() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch held = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                try (BinaryLock lock = BinaryLock.acquire(binary)) {
+                    held.countDown();
+                    release.await();
+                } catch (Exception ignored) {
+                }
+            }
+        };
+        holder.start();
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+
+        long started = System.nanoTime();
+        try {
+            BinaryLock.acquire(binary, Deadline.after(300, TimeUnit.MILLISECONDS)).close();
+            fail("Expected the lock wait to time out");
+        } catch (IOException expected) {
+        } finally {
+            release.countDown();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 2000);
+
+        holder.join();
+        BinaryLock.acquire(binary, Deadline.after(1, TimeUnit.SECONDS)).close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new File(binary.getPath() + ".lock").delete();
+        binary.delete();
+    }
+}
@@ -0,0 +1,166 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryStoreTest {
+    private static final String PLATFORM = "BrowserStackLocal-linux-x64";
+
+    private File dir;
+    private BinaryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bslocal-store").toFile();
+        store = new BinaryStore(new File(dir, "store"), 2500);
+    }
+
+    @Test
+    public void testPutAndLookup() throws Exception {
+        File stored = put(binary("v1", 1000, 1), "8.8");
+        Thread.sleep(5);
+        put(binary("v2", 1000, 2), "8.9");
+
+        assertEquals(stored, store.lookup(PLATFORM, "8.8"));
+        assertTrue(store.lookup(PLATFORM, "8.8").canExecute());
+        assertEquals("8.9", versionOf(store.lookup(PLATFORM, null)));
+        assertNull(store.lookup(PLATFORM, "7.0"));
+        assertNull(store.lookup("BrowserStackLocal-alpine", null));
+    }
+
+    @Test
+    public void testSameContentStoredOnce() throws Exception {
+        File first = put(binary("a", 1000, 1), "8.9");
+        File second = put(binary("b", 1000, 1), "8.9");
+
+        assertEquals(first, second);
+        assertEquals(1, store.getDirectory().listFiles(File::isDirectory).length);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        File oldest = put(binary("v1", 1000, 1), "8.7");
+        Thread.sleep(5);
+        put(binary("v2", 1000, 2), "8.8");
+        Thread.sleep(5);
+        put(binary("v3", 1000, 3), "8.9");
+
+        assertNull(store.lookup(PLATFORM, "8.7"));
+        assertTrue(!oldest.exists());
+        assertNotNull(store.lookup(PLATFORM, "8.8"));
+        assertNotNull(store.lookup(PLATFORM, "8.9"));
+
+        /* A binary larger than the whole budget is still kept */
+        put(binary("huge", 4000, 4), "9.0");
+        assertNotNull(store.lookup(PLATFORM, "9.0"));
+        assertNull(store.lookup(PLATFORM, "8.9"));
+    }
+
+    @Test
+    public void testVersionWithRunningDaemonKept() throws Exception {
+        File inUse = put(binary("v1", 1000, 1), "8.7");
+        int jvmPid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        store.recordDaemon(inUse, jvmPid);
+        Thread.sleep(5);
+        put(binary("v2", 1000, 2), "8.8");
+        Thread.sleep(5);
+        put(binary("v3", 1000, 3), "8.9");
+
+        assertEquals(inUse, store.lookup(PLATFORM, "8.7"));
+        assertNull(store.lookup(PLATFORM, "8.8"));
+        assertNotNull(store.lookup(PLATFORM, "8.9"));
+
+        /* Binaries outside the store are not marked */
+        File outside = binary("v4", 1000, 4);
+        store.recordDaemon(outside, jvmPid);
+        assertTrue(!new File(dir, jvmPid + DaemonMarkers.PID_SUFFIX).exists());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        File stored = put(binary("v1", 1000, 1), "8.9");
+        store.remove(stored);
+
+        assertNull(store.lookup(PLATFORM, "8.9"));
+        assertTrue(!stored.getParentFile().exists());
+    }
+
+    @Test
+    public void testPinnedVersionResolved() throws Exception {
+        File binary = FakeBinary.create();
+        File stored = null;
+        try {
+            String sha256 = BinaryDownloader.toHex(BinaryDownloader.newDigest().digest(Files.readAllBytes(binary.toPath())));
+            stored = store.put(binary, sha256, Platform.detect().getBinaryFileName(), "8.9");
+
+            LocalBinary resolved = new LocalBinary(LocalOptions.builder().key("dummy").binaryVersion("8.9").build(),
+                    DefaultProcessLauncher.INSTANCE, LocalMetricsListener.NONE, Deadline.NONE, store);
+            assertEquals(stored.getPath(), resolved.getBinaryPath());
+        } finally {
+            if (stored != null) {
+                BinaryCache.invalidate(stored.getPath());
+            }
+            FakeBinary.delete(binary);
+        }
+    }
+
+    @Test
+    public void testPinnedVersionMissing() throws Exception {
+        try {
+            new LocalBinary(LocalOptions.builder().key("dummy").binaryVersion("0.1").build(),
+                    DefaultProcessLauncher.INSTANCE, LocalMetricsListener.NONE, Deadline.NONE, store);
+            fail("Expected a missing pinned version to fail");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage().contains("not in the binary store"));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private File put(File binary, String version) throws Exception {
+        String sha256 = BinaryDownloader.toHex(BinaryDownloader.newDigest().digest(Files.readAllBytes(binary.toPath())));
+        return store.put(binary, sha256, PLATFORM, version);
+    }
+
+    private File binary(String name, int size, int seed) throws Exception {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) seed);
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private String versionOf(File stored) throws Exception {
+        for (String version : Arrays.asList("8.8", "8.9")) {
+            if (stored.equals(store.lookup(PLATFORM, version))) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,235 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryUpdaterTest {
+    private HttpServer server;
+    private File directory;
+    private File binary;
+    private BinaryUpdater updater;
+    private volatile String latest = "8.2";
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/BrowserStackLocal", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = latest.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("ETag", "\"" + latest + "\"");
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                    return;
+                }
+                downloads.incrementAndGet();
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        });
+        server.start();
+
+        directory = Files.createTempDirectory("bslocal").toFile();
+        BinaryCache.setStampDirectory(new File(directory, "stamps"));
+        binary = new File(directory, "BrowserStackLocal");
+        Files.write(binary.toPath(), "8.1".getBytes("UTF-8"));
+
+        /* Each fake binary reports the version it contains */
+        updater = new BinaryUpdater(directory, "BrowserStackLocal", command -> {
+            final byte[] contents = Files.readAllBytes(new File(command.get(0)).toPath());
+            return new Local.LocalProcess() {
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(("BrowserStack Local version " + new String(contents)).getBytes());
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+            };
+        });
+    }
+
+    @Test
+    public void testSwitchesToNewerVersion() throws Exception {
+        assertNull(updater.current());
+
+        assertTrue(updater.check(binary, this::url));
+
+        File current = updater.current();
+        assertEquals("8.2", new String(Files.readAllBytes(current.toPath()), "UTF-8"));
+        assertFalse(current.equals(binary));
+        assertEquals("8.1", new String(Files.readAllBytes(binary.toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testUnchangedValidatorSkipsDownload() throws Exception {
+        updater.check(binary, this::url);
+        File current = updater.current();
+
+        assertFalse(updater.check(current, this::url));
+        assertEquals(1, downloads.get());
+        assertEquals(current, updater.current());
+    }
+
+    @Test
+    public void testSameVersionKeepsCurrentBinary() throws Exception {
+        latest = "8.1";
+
+        assertFalse(updater.check(binary, this::url));
+        assertNull(updater.current());
+        File[] versions = new File(directory, BinaryUpdater.VERSIONS_DIR).listFiles();
+        assertEquals(0, versions.length);
+
+        assertFalse(updater.check(binary, this::url));
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void testOlderVersionNotInstalled() throws Exception {
+        updater.check(binary, this::url);
+        File current = updater.current();
+        latest = "8.10";
+        assertTrue(updater.check(current, this::url));
+        current = updater.current();
+
+        /* The endpoint rolled back */
+        latest = "8.9";
+        assertFalse(updater.check(current, this::url));
+        assertEquals(current, updater.current());
+        assertEquals("8.10", new String(Files.readAllBytes(current.toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testHangingVersionCheckKilledAtDeadline() throws Exception {
+        final AtomicInteger destroyed = new AtomicInteger();
+        BinaryUpdater hanging = new BinaryUpdater(directory, "BrowserStackLocal", command -> new Local.LocalProcess() {
+            private final PipedOutputStream stdout = new PipedOutputStream();
+            private final PipedInputStream in = new PipedInputStream(stdout);
+
+            public InputStream getInputStream() {
+                return in;
+            }
+
+            public InputStream getErrorStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            public int waitFor() {
+                return 0;
+            }
+
+            public void destroy() {
+                destroyed.incrementAndGet();
+                try {
+                    stdout.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+
+        try {
+            hanging.check(binary, this::url, Deadline.after(300, TimeUnit.MILLISECONDS));
+            fail("Expected the version check to time out");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage().contains("timed out"));
+        }
+        assertEquals(1, destroyed.get());
+        assertNull(hanging.current());
+        assertEquals(0, new File(directory, BinaryUpdater.VERSIONS_DIR).listFiles().length);
+    }
+
+    @Test
+    public void testCompareVersions() {
+        assertTrue(BinaryUpdater.compareVersions("BrowserStack Local version 8.10",
+                "BrowserStack Local version 8.9") > 0);
+        assertTrue(BinaryUpdater.compareVersions("BrowserStack Local version 8.9",
+                "BrowserStack Local version 9.0") < 0);
+        assertEquals(0, BinaryUpdater.compareVersions("BrowserStack Local version 8.9",
+                "BrowserStack Local version 8.9"));
+    }
+
+    @Test
+    public void testVersionWithRunningDaemonKept() throws Exception {
+        updater.check(binary, this::url);
+        File second = updater.current();
+        int jvmPid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        BinaryUpdater.recordDaemon(second, jvmPid);
+        BinaryUpdater.recordDaemon(binary, jvmPid);
+        assertFalse(new File(directory, jvmPid + DaemonMarkers.PID_SUFFIX).exists());
+
+        latest = "8.3";
+        updater.check(second, this::url);
+        latest = "8.4";
+        updater.check(updater.current(), this::url);
+
+        assertTrue(second.exists());
+        assertEquals(3, new File(directory, BinaryUpdater.VERSIONS_DIR).listFiles().length);
+    }
+
+    @Test
+    public void testOlderVersionsPruned() throws Exception {
+        updater.check(binary, this::url);
+        File second = updater.current();
+        latest = "8.3";
+        updater.check(second, this::url);
+        File third = updater.current();
+        latest = "8.4";
+        updater.check(third, this::url);
+
+        assertFalse(second.exists());
+        assertTrue(third.exists());
+        assertEquals(2, new File(directory, BinaryUpdater.VERSIONS_DIR).listFiles().length);
+    }
+
+    private URL url() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/BrowserStackLocal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        BinaryCache.setStampDirectory(BinaryCache.DEFAULT_STAMP_DIRECTORY);
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,129 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+    private File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        binary = File.createTempFile("BrowserStackLocal", "");
+        BinaryCache.invalidate(binary.getPath());
+    }
+
+    @Test
+    public void testNoDeadline() throws Exception {
+        Deadline deadline = Deadline.after(0, TimeUnit.SECONDS);
+        assertFalse(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.remainingNanos());
+
+        URLConnection connection = new URL("http://127.0.0.1/").openConnection();
+        deadline.apply(connection);
+        assertEquals(Deadline.DEFAULT_CONNECT_TIMEOUT_MILLIS, connection.getConnectTimeout());
+        assertEquals(Deadline.DEFAULT_READ_TIMEOUT_MILLIS, connection.getReadTimeout());
+    }
+
+    @Test
+    public void testExpiredDeadline() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+
+        URLConnection connection = new URL("http://127.0.0.1/").openConnection();
+        deadline.apply(connection);
+        assertEquals(1, connection.getReadTimeout());
+
+        try {
+            deadline.check(LocalMetricsListener.Phase.DOWNLOAD);
+            fail("Expected the deadline to have passed");
+        } catch (LocalException e) {
+            assertEquals(LocalMetricsListener.Phase.DOWNLOAD, e.getPhase());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testHandshakeTimeoutStopsDaemon() throws Exception {
+        FakeDaemonLauncher daemon = new FakeDaemonLauncher().setStartLatency(10, TimeUnit.SECONDS);
+        Local local = new Local(daemon);
+        LocalOptions options = LocalOptions.builder()
+                .key("dummy")
+                .binaryPath(binary.getPath())
+                .startTimeout(300, TimeUnit.MILLISECONDS)
+                .build();
+
+        long started = System.nanoTime();
+        try {
+            local.start(options);
+            fail("Expected the start to time out");
+        } catch (LocalException e) {
+            assertEquals(LocalMetricsListener.Phase.HANDSHAKE, e.getPhase());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 5000);
+        assertFalse(local.isRunning());
+
+        while (daemon.getRunningCount() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testValidationTimeoutKillsCheck() throws Exception {
+        final PipedOutputStream stdout = new PipedOutputStream();
+        final PipedInputStream hung = new PipedInputStream(stdout);
+        final boolean[] destroyed = new boolean[1];
+        ProcessLauncher launcher = command -> new Local.LocalProcess() {
+            public InputStream getInputStream() {
+                return hung;
+            }
+
+            public InputStream getErrorStream() {
+                return new PipedInputStream();
+            }
+
+            public int waitFor() {
+                return 0;
+            }
+
+            public void destroy() {
+                destroyed[0] = true;
+                try {
+                    stdout.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+
+        try {
+            new LocalBinary(LocalOptions.builder().key("dummy").binaryPath(binary.getPath()).build(), launcher,
+                    LocalMetricsListener.NONE, Deadline.after(300, TimeUnit.MILLISECONDS));
+            fail("Expected validation to time out");
+        } catch (LocalException e) {
+            assertEquals(LocalMetricsListener.Phase.VALIDATE, e.getPhase());
+        }
+        assertTrue(destroyed[0]);
+        assertTrue("A binary that timed out is not deleted", binary.exists());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BinaryCache.invalidate(binary.getPath());
+        binary.delete();
+    }
+}
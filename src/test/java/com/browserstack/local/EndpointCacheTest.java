@@ -0,0 +1,124 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointCacheTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bslocal").toFile();
+    }
+
+    @Test
+    public void testFreshEntry() throws Exception {
+        EndpointCache cache = new EndpointCache(directory, "key");
+        assertNull(cache.lookup());
+
+        cache.store("https://example.com/binaries");
+        EndpointCache.Lookup lookup = new EndpointCache(directory, "key").lookup();
+        assertEquals("https://example.com/binaries", lookup.endpoint);
+        assertFalse(lookup.stale);
+    }
+
+    @Test
+    public void testStaleAndExpiredEntries() throws Exception {
+        new EndpointCache(directory, "key").store("https://example.com/binaries");
+        Thread.sleep(20);
+
+        assertTrue(new EndpointCache(directory, "key", 10, TimeUnit.HOURS.toMillis(1)).lookup().stale);
+        assertNull(new EndpointCache(directory, "key", 5, 10).lookup());
+    }
+
+    @Test
+    public void testEntryForOtherKeyIgnored() throws Exception {
+        new EndpointCache(directory, "key").store("https://example.com/binaries");
+        assertNull(new EndpointCache(directory, "other").lookup());
+    }
+
+    @Test
+    public void testCorruptEntryIgnored() throws Exception {
+        EndpointCache cache = new EndpointCache(directory, "key");
+        Files.write(cache.getFile().toPath(), "{not json".getBytes("UTF-8"));
+        assertNull(cache.lookup());
+    }
+
+    @Test
+    public void testStaleFallbackEntryNotServed() throws Exception {
+        new EndpointCache(directory, "key").store("https://fallback.example.com/binaries", true);
+        assertEquals("https://fallback.example.com/binaries", new EndpointCache(directory, "key").lookup().endpoint);
+        Thread.sleep(20);
+
+        assertNull(new EndpointCache(directory, "key", 10, TimeUnit.HOURS.toMillis(1)).lookup());
+    }
+
+    @Test(timeout = 10000)
+    public void testRefreshAsyncKeepsFallbackEntry() throws Exception {
+        final EndpointCache cache = new EndpointCache(directory, "key");
+        final CountDownLatch fetched = new CountDownLatch(1);
+        cache.store("https://fallback.example.com/binaries", true);
+
+        cache.refreshAsync(() -> {
+            fetched.countDown();
+            return "https://primary.example.com/binaries";
+        });
+        fetched.await();
+        /* Wait for the refresh to finish, it is then no longer in flight */
+        final CountDownLatch second = new CountDownLatch(1);
+        while (second.getCount() > 0) {
+            cache.refreshAsync(() -> {
+                second.countDown();
+                throw new IllegalStateException("not stored");
+            });
+            Thread.sleep(10);
+        }
+
+        assertEquals("https://fallback.example.com/binaries", cache.lookup().endpoint);
+    }
+
+    @Test(timeout = 10000)
+    public void testRefreshAsyncCollapsesConcurrentRefreshes() throws Exception {
+        final EndpointCache cache = new EndpointCache(directory, "key");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            cache.refreshAsync(() -> {
+                fetches.incrementAndGet();
+                release.await();
+                return "https://example.com/refreshed";
+            });
+        }
+        release.countDown();
+
+        while (cache.lookup() == null) {
+            Thread.sleep(10);
+        }
+        assertEquals("https://example.com/refreshed", cache.lookup().endpoint);
+        assertEquals(1, fetches.get());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
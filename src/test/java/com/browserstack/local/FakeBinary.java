@@ -0,0 +1,91 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Writes a stand-in BrowserStackLocal binary that only answers --version,
+ * so tests can resolve a binary without a network.
+ */
+final class FakeBinary {
+
+    private FakeBinary() {
+    }
+
+    static File create() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("windows"));
+
+        File dir = Files.createTempDirectory("bslocal").toFile();
+        File binary = new File(dir, "BrowserStackLocal");
+        Files.write(binary.toPath(), "#!/bin/sh\necho \"BrowserStack Local version 8.9\"\n".getBytes("utf-8"));
+        binary.setExecutable(true, true);
+        dir.deleteOnExit();
+        binary.deleteOnExit();
+        return binary;
+    }
+
+    /**
+     * Deletes a binary made by {@link #create()}, along with its validation
+     * stamp and directory
+     *
+     * @param binary Binary to delete
+     */
+    static void delete(File binary) {
+        BinaryCache.invalidate(binary.getPath());
+        binary.delete();
+        binary.getParentFile().delete();
+    }
+
+    /**
+     * Creates a {@link FakeDaemonLauncher} along with an empty binary file for
+     * it, which the launcher answers --version for
+     *
+     * @return fixture, to be deleted after the test
+     */
+    static Fixture fixture() throws IOException {
+        return new Fixture(new FakeDaemonLauncher(), File.createTempFile("BrowserStackLocal", ""));
+    }
+
+    /**
+     * Fake daemon and the binary file Local instances start it from
+     */
+    static final class Fixture {
+        final FakeDaemonLauncher daemon;
+        final File binary;
+
+        private Fixture(FakeDaemonLauncher daemon, File binary) {
+            this.daemon = daemon;
+            this.binary = binary;
+        }
+
+        /**
+         * @return start options with a dummy key and the fixture's binary
+         */
+        Map<String, String> options() {
+            Map<String, String> options = new HashMap<String, String>();
+            options.put("key", "dummy");
+            options.put("binarypath", binary.getPath());
+            return options;
+        }
+
+        /**
+         * @return options builder with a dummy key and the fixture's binary
+         */
+        LocalOptions.Builder builder() {
+            return LocalOptions.builder().key("dummy").binaryPath(binary.getPath());
+        }
+
+        /**
+         * Deletes the binary along with its validation stamp
+         */
+        void delete() {
+            BinaryCache.invalidate(binary.getPath());
+            binary.delete();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FakeDaemonLauncherTest {
+    private FakeBinary.Fixture fixture;
+    private FakeDaemonLauncher daemon;
+    private Map<String, String> options;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = FakeBinary.fixture();
+        daemon = fixture.daemon;
+        options = fixture.options();
+        options.put("localIdentifier", "fake");
+    }
+
+    @Test(timeout = 30000)
+    public void testStartStopCycles() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            Local local = new Local(daemon);
+            local.start(options);
+            assertTrue(local.isRunning());
+            local.stop();
+            assertFalse(local.isRunning());
+        }
+        assertEquals(0, daemon.getRunningCount());
+    }
+
+    @Test
+    public void testSecondInstanceRejectedUnlessForced() throws Exception {
+        Local first = new Local(daemon);
+        first.start(options);
+
+        Local second = new Local(daemon);
+        try {
+            second.start(options);
+            fail("Expected the second instance to be rejected");
+        } catch (LocalException e) {
+            assertFalse(second.isRunning());
+        }
+
+        options.put("force", "true");
+        second.start(options);
+        assertTrue(second.isRunning());
+        assertFalse(first.isRunning());
+        second.stop();
+    }
+
+    @Test
+    public void testInjectedFailure() throws Exception {
+        daemon.setFailure("Invalid key");
+        try {
+            new Local(daemon).start(options);
+            fail("Expected start to fail");
+        } catch (LocalException e) {
+            assertEquals("Invalid key", e.getMessage());
+        }
+        assertEquals(0, daemon.getRunningCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testInjectedLatencyAndExit() throws Exception {
+        daemon.setStartLatency(200, TimeUnit.MILLISECONDS);
+        Local local = new Local(daemon);
+
+        long started = System.nanoTime();
+        TunnelInfo info = local.startAsync(options).get();
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(200));
+
+        CompletableFuture<Void> exit = local.onExit();
+        assertFalse(exit.isDone());
+        daemon.kill(info.getPid());
+        exit.get(5, TimeUnit.SECONDS);
+        assertFalse(local.isRunning());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.delete();
+    }
+}
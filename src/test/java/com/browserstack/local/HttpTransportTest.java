@@ -0,0 +1,77 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpTransportTest {
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final byte[] payload = new byte[8 * 1024];
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/missing", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "{\"error\":\"not found\"}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/binary", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(payload);
+            }
+        });
+        server.start();
+        target = new File(Files.createTempDirectory("bslocal").toFile(), "BrowserStackLocal");
+    }
+
+    @Test
+    public void testConnectionReusedAfterErrorResponse() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) HttpTransport.open(url("/missing"), Deadline.NONE);
+        assertEquals(404, conn.getResponseCode());
+        HttpTransport.release(conn);
+
+        BinaryDownloader.download(url("/binary"), target, null);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testConnectionReusedAcrossDownloads() throws Exception {
+        BinaryDownloader.download(url("/binary"), target, null);
+        target.delete();
+        BinaryDownloader.download(url("/binary"), target, null);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        target.delete();
+        new File(target.getPath() + ".part.etag").delete();
+        target.getParentFile().delete();
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+}
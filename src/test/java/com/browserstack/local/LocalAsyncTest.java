@@ -0,0 +1,113 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalAsyncTest {
+    private Map<String, String> options;
+    private final List<String> opcodes = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        options = new HashMap<String, String>();
+        options.put("key", "dummy");
+        options.put("binarypath", FakeBinary.create().getPath());
+        options.put("localIdentifier", "async");
+    }
+
+    @Test
+    public void testStartAndStopAsync() throws Exception {
+        Local l = new FakeLocal("{\"state\":\"connected\",\"pid\":4242}");
+
+        TunnelInfo info = l.startAsync(options).get(10, TimeUnit.SECONDS);
+        assertEquals(4242, info.getPid());
+        assertEquals("async", info.getLocalIdentifier());
+        assertEquals(options.get("binarypath"), info.getBinaryPath());
+
+        l.stopAsync().get(10, TimeUnit.SECONDS);
+        assertFalse(l.isRunning());
+        assertEquals("start", opcodes.get(0));
+        assertEquals("stop", opcodes.get(1));
+    }
+
+    @Test
+    public void testStartAsyncFailure() throws Exception {
+        Local l = new FakeLocal("{\"state\":\"disconnected\",\"message\":{\"message\":\"Invalid key\"}}");
+
+        try {
+            l.startAsync(options).get(10, TimeUnit.SECONDS);
+            fail("Expected start to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof LocalException);
+            assertEquals("Invalid key", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testCustomExecutor() throws Exception {
+        final List<Runnable> submitted = new ArrayList<Runnable>();
+        Local l = new FakeLocal("{\"state\":\"connected\",\"pid\":7}");
+        l.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                submitted.add(command);
+                command.run();
+            }
+        });
+
+        assertEquals(7, l.startAsync(options).get().getPid());
+        l.stopAsync().get();
+        assertEquals(2, submitted.size());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FakeBinary.delete(new File(options.get("binarypath")));
+    }
+
+    private class FakeLocal extends Local {
+        private final String handshake;
+
+        FakeLocal(String handshake) {
+            this.handshake = handshake;
+        }
+
+        @Override
+        protected LocalProcess runCommand(final List<String> command) {
+            if (command.size() > 2 && command.get(1).equals("-d")) {
+                opcodes.add(command.get(2));
+            }
+            final String output = command.contains("start") ? handshake : "";
+            return new LocalProcess() {
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(output.getBytes());
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+            };
+        }
+    }
+}
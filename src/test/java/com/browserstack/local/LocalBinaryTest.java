@@ -0,0 +1,69 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalBinaryTest {
+    private File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        binary = FakeBinary.create();
+        BinaryCache.clear();
+    }
+
+    @Test(timeout = 30000)
+    public void testPrefetchedBinaryNotValidatedAgain() throws Exception {
+        String path = LocalBinary.prefetch(LocalOptions.builder().binaryPath(binary.getPath()).build())
+                .get(20, TimeUnit.SECONDS);
+        assertEquals(binary.getPath(), path);
+        assertTrue(BinaryCache.stampFor(path).isFile());
+        assertFalse(new File(path + BinaryCache.STAMP_SUFFIX).exists());
+
+        /* A fresh JVM only has the stamp on disk to go by */
+        BinaryCache.clear();
+        ProcessLauncher failing = command -> {
+            throw new IOException("Binary should not be run again");
+        };
+        new LocalBinary(LocalOptions.builder().key("dummy").binaryPath(binary.getPath()).build(), failing,
+                LocalMetricsListener.NONE);
+    }
+
+    @Test(timeout = 30000)
+    public void testPrefetchFailureReported() throws Exception {
+        ProcessLauncher failing = command -> {
+            throw new IOException("cannot run");
+        };
+        try {
+            new LocalBinary(LocalOptions.builder().key("dummy").binaryPath(binary.getPath()).build(), failing,
+                    LocalMetricsListener.NONE);
+            fail("Expected validation to fail");
+        } catch (LocalException expected) {
+        }
+
+        try {
+            LocalBinary.prefetch(LocalOptions.builder().binaryPath("/nonexistent/dir/BrowserStackLocal").key("dummy").build())
+                    .get(20, TimeUnit.SECONDS);
+            fail("Expected prefetch to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof LocalException);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BinaryCache.invalidate(binary.getPath());
+        BinaryCache.clear();
+    }
+}
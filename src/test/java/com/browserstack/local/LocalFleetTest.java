@@ -0,0 +1,140 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalFleetTest {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+    private String fakeBinaryPath;
+
+    @Before
+    public void setUp() throws Exception {
+        fakeBinaryPath = FakeBinary.create().getPath();
+    }
+
+    @Test(timeout = 20000)
+    public void testBoundedParallelStart() throws Exception {
+        LocalFleet fleet = new LocalFleet(3, 10, TimeUnit.SECONDS, StubLocal::new);
+
+        LocalFleet.Result result = fleet.startAll(shards(10));
+
+        assertTrue(result.isComplete());
+        assertEquals(10, result.getStarted().size());
+        assertTrue(maxInFlight.get() <= 3);
+        assertTrue(maxInFlight.get() > 1);
+
+        fleet.stop();
+        assertEquals(10, stops.get());
+    }
+
+    @Test(timeout = 20000)
+    public void testPartialFailureAndTimeout() throws Exception {
+        LocalFleet fleet = new LocalFleet(4, 1, TimeUnit.SECONDS, StubLocal::new);
+        List<Map<String, String>> shards = shards(4);
+        shards.get(1).put("localIdentifier", "fail");
+        shards.get(2).put("localIdentifier", "hang");
+
+        LocalFleet.Result result = fleet.startAll(shards);
+
+        assertFalse(result.isComplete());
+        assertEquals(2, result.getStarted().size());
+        assertTrue(result.getFailures().get(1) instanceof LocalException);
+        assertTrue(result.getFailures().get(2) instanceof TimeoutException);
+        fleet.stop();
+    }
+
+    @Test(timeout = 20000)
+    public void testHungStartsDoNotBlockQueuedTunnels() throws Exception {
+        LocalFleet fleet = new LocalFleet(2, 1, TimeUnit.SECONDS, StubLocal::new);
+        List<Map<String, String>> shards = shards(6);
+        for (Map<String, String> options : shards) {
+            options.put("localIdentifier", "hang");
+        }
+
+        long started = System.nanoTime();
+        LocalFleet.Result result = fleet.startAll(shards);
+
+        /* Each start hangs for 3 seconds unless its startTimeout ends it first */
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 2500);
+        assertEquals(6, result.getFailures().size());
+        for (Throwable failure : result.getFailures().values()) {
+            assertTrue(failure instanceof TimeoutException);
+        }
+        assertTrue(maxInFlight.get() <= 2);
+        fleet.stop();
+    }
+
+    @Test
+    public void testTooShortStartTimeoutRejected() {
+        for (long timeout : new long[] {0, -1, 999}) {
+            try {
+                new LocalFleet(2, timeout, TimeUnit.MICROSECONDS, StubLocal::new);
+                fail("Expected startTimeout " + timeout + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FakeBinary.delete(new File(fakeBinaryPath));
+    }
+
+    private List<Map<String, String>> shards(int count) {
+        List<Map<String, String>> shards = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> options = new HashMap<String, String>();
+            options.put("key", "dummy");
+            options.put("localIdentifier", "shard-" + i);
+            if (i == 0) {
+                options.put("binarypath", fakeBinaryPath);
+            }
+            shards.add(options);
+        }
+        return shards;
+    }
+
+    private class StubLocal extends Local {
+        @Override
+        public void start(Map<String, String> options) throws Exception {
+            assertEquals(fakeBinaryPath, options.get("binarypath"));
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                if ("hang".equals(options.get("localIdentifier"))) {
+                    long startTimeout = Local.toOptions(options).getStartTimeoutMillis();
+                    Thread.sleep(startTimeout > 0 ? Math.min(startTimeout, 3000) : 3000);
+                    throw new LocalException("BrowserStackLocal did not start in time");
+                }
+                Thread.sleep(100);
+                if ("fail".equals(options.get("localIdentifier"))) {
+                    throw new LocalException("Could not connect");
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void stop() {
+            stops.incrementAndGet();
+        }
+    }
+}
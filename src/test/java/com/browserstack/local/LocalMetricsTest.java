@@ -0,0 +1,64 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalMetricsTest {
+    private FakeBinary.Fixture fixture;
+    private FakeDaemonLauncher daemon;
+    private LocalMetrics metrics;
+    private Map<String, String> options;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = FakeBinary.fixture();
+        daemon = fixture.daemon;
+        metrics = new LocalMetrics();
+        options = fixture.options();
+    }
+
+    @Test
+    public void testStartAndStopPhasesAreTimed() throws Exception {
+        daemon.setStartLatency(100, TimeUnit.MILLISECONDS);
+        Local local = new Local(daemon);
+        local.setMetricsListener(metrics);
+
+        local.start(options);
+        local.stop();
+
+        assertEquals(1, metrics.timer(LocalMetrics.PHASE_TIMER, "outcome", "success", "phase", "validate").count());
+        assertEquals(1, metrics.timer(LocalMetrics.PHASE_TIMER, "outcome", "success", "phase", "stop").count());
+        LocalMetrics.Timer handshake = metrics.timer(LocalMetrics.PHASE_TIMER, "outcome", "success", "phase", "handshake");
+        assertEquals(1, handshake.count());
+        assertTrue(handshake.max(TimeUnit.MILLISECONDS) >= 100);
+    }
+
+    @Test
+    public void testFailedHandshakeIsTimedAsFailure() throws Exception {
+        daemon.setFailure("Invalid key");
+        Local local = new Local(daemon);
+        local.setMetricsListener(metrics);
+
+        try {
+            local.start(options);
+            fail("Expected start to fail");
+        } catch (LocalException expected) {
+        }
+
+        assertEquals(1, metrics.timer(LocalMetrics.PHASE_TIMER, "outcome", "failure", "phase", "handshake").count());
+        assertEquals(0, metrics.timer(LocalMetrics.PHASE_TIMER, "outcome", "success", "phase", "handshake").count());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.delete();
+    }
+}
@@ -0,0 +1,126 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalOptionsTest {
+
+    @Test
+    public void testFalseFlagIsLeftOut() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "dummy");
+        map.put("force", "false");
+        map.put("v", " FALSE ");
+        map.put("forcelocal", "true");
+
+        List<String> args = LocalOptions.fromMap(map).getArguments();
+        assertFalse(args.contains("-force"));
+        assertFalse(args.contains("-vvv"));
+        assertFalse(args.contains("false"));
+        assertTrue(args.contains("-forcelocal"));
+    }
+
+    @Test
+    public void testBuilderMatchesMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "dummy");
+        map.put("localIdentifier", "build-42");
+        map.put("force", "true");
+        map.put("proxyHost", "127.0.0.1");
+        map.put("proxyPort", "3128");
+        map.put("logFile", "/tmp/local.log");
+
+        LocalOptions built = LocalOptions.builder()
+                .proxy("127.0.0.1", 3128)
+                .logFile("/tmp/local.log")
+                .force(true)
+                .localIdentifier("build-42")
+                .key("dummy")
+                .build();
+
+        assertEquals(LocalOptions.fromMap(map), built);
+        assertEquals(LocalOptions.fromMap(map).hashCode(), built.hashCode());
+        assertEquals(Arrays.asList("--key", "dummy", "--source", "java-" + Local.getPackageVersion(),
+                "-force", "-localIdentifier", "build-42", "-logFile", "/tmp/local.log",
+                "-proxyHost", "127.0.0.1", "-proxyPort", "3128"), built.getArguments());
+    }
+
+    @Test
+    public void testWrapperOptionsStayOutOfArguments() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "dummy");
+        map.put("binarypath", "/tmp/BrowserStackLocal");
+        map.put("parallelDownloads", "4");
+        map.put("binaryAutoUpdate", "true");
+        map.put("startTimeout", "1.5");
+        map.put("binaryVersion", "8.9");
+        map.put("onlyCommand", "true");
+
+        LocalOptions options = LocalOptions.fromMap(map);
+        assertEquals(4, options.getArguments().size());
+        assertEquals("/tmp/BrowserStackLocal", options.getBinaryPath());
+        assertEquals(4, options.getParallelDownloads());
+        assertTrue(options.isBinaryAutoUpdate());
+        assertEquals(1500, options.getStartTimeoutMillis());
+        assertEquals("8.9", options.getBinaryVersion());
+        assertTrue(options.isOnlyCommand());
+        assertEquals(options, LocalOptions.fromMap(options.toMap()));
+        assertNotEquals(options, LocalOptions.builder().key("dummy").build());
+    }
+
+    @Test
+    public void testCommandIsCachedAndImmutable() {
+        LocalOptions options = LocalOptions.builder().key("dummy").verbose(true).build();
+
+        List<String> start = options.command("/tmp/BrowserStackLocal", "start");
+        assertSame(start, options.command("/tmp/BrowserStackLocal", "start"));
+        assertEquals(Arrays.asList("/tmp/BrowserStackLocal", "-d", "stop"),
+                options.command("/tmp/BrowserStackLocal", "stop").subList(0, 3));
+        try {
+            start.add("-force");
+            fail("Expected the command to be immutable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testInvalidValuesRejected() {
+        try {
+            LocalOptions.builder().parallelDownloads(0);
+            fail("Expected parallelDownloads 0 to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            LocalOptions.builder().binaryVersion("latest");
+            fail("Expected binaryVersion latest to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("parallelDownloads", "many");
+        try {
+            Local.toOptions(map);
+            fail("Expected parallelDownloads to be rejected");
+        } catch (LocalException e) {
+            assertEquals("Invalid value for parallelDownloads: many", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testToStringHidesSecrets() {
+        String shown = LocalOptions.builder().key("secret-key").proxyCredentials("user", "secret-pass").build().toString();
+        assertFalse(shown.contains("secret"));
+        assertTrue(shown.contains("user"));
+    }
+}
@@ -0,0 +1,166 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalPoolTest {
+    private final AtomicInteger starts = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+    private final AtomicInteger stopCalls = new AtomicInteger();
+    private LocalPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new LocalPool(2, 1, TimeUnit.HOURS, StubLocal::new);
+    }
+
+    @Test
+    public void testCompatibleOptionsShareTunnel() throws Exception {
+        Map<String, String> first = options("one");
+        first.put("binarypath", "/opt/BrowserStackLocal");
+        Map<String, String> second = options(" one ");
+
+        try (LocalPool.Lease a = pool.lease(first); LocalPool.Lease b = pool.lease(second)) {
+            assertSame(a.getLocal(), b.getLocal());
+        }
+        assertEquals(1, starts.get());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testDifferentOptionsGetDifferentTunnels() throws Exception {
+        try (LocalPool.Lease a = pool.lease(options("one")); LocalPool.Lease b = pool.lease(options("two"))) {
+            assertNotSame(a.getLocal(), b.getLocal());
+        }
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    public void testFullPoolEvictsIdleTunnel() throws Exception {
+        pool.lease(options("one")).close();
+        try (LocalPool.Lease b = pool.lease(options("two")); LocalPool.Lease c = pool.lease(options("three"))) {
+            assertEquals(2, pool.size());
+            try {
+                pool.lease(options("four"));
+                fail("Expected the pool to be full");
+            } catch (LocalException expected) {
+            }
+        }
+        waitFor(stops, 1);
+    }
+
+    @Test
+    public void testIdleTunnelsEvicted() throws Exception {
+        LocalPool shortLived = new LocalPool(2, 0, TimeUnit.MILLISECONDS, StubLocal::new);
+        shortLived.lease(options("one")).close();
+        shortLived.evictIdle();
+        assertEquals(0, shortLived.size());
+        waitFor(stops, 1);
+        shortLived.close();
+    }
+
+    @Test
+    public void testDeadTunnelReplaced() throws Exception {
+        LocalPool.Lease first = pool.lease(options("one"));
+        ((StubLocal) first.getLocal()).running = false;
+        first.close();
+
+        try (LocalPool.Lease second = pool.lease(options("one"))) {
+            assertTrue(second.getLocal().isRunning());
+        }
+        assertEquals(2, starts.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testHealthCheckOutsideLockAndUnhealthyTunnelStopped() throws Exception {
+        LocalPool.Lease first = pool.lease(options("one"));
+        final StubLocal wedged = (StubLocal) first.getLocal();
+        first.close();
+        wedged.healthy = false;
+        wedged.probeGate = new CountDownLatch(1);
+
+        Thread leasing = new Thread(() -> {
+            try {
+                pool.lease(options("one")).close();
+            } catch (Exception ignored) {
+            }
+        });
+        leasing.start();
+        assertTrue(wedged.probing.await(5, TimeUnit.SECONDS));
+        /* The pool stays usable while the probe hangs */
+        assertEquals(1, pool.size());
+        wedged.probeGate.countDown();
+        leasing.join();
+
+        assertEquals(2, starts.get());
+        waitFor(stopCalls, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    private static Map<String, String> options(String identifier) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "dummy");
+        options.put("localIdentifier", identifier);
+        return options;
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, counter.get());
+    }
+
+    private class StubLocal extends Local {
+        volatile boolean running = false;
+        volatile boolean healthy = true;
+        volatile CountDownLatch probeGate;
+        final CountDownLatch probing = new CountDownLatch(1);
+
+        @Override
+        public void start(Map<String, String> options) {
+            starts.incrementAndGet();
+            running = true;
+        }
+
+        @Override
+        public void stop() {
+            stopCalls.incrementAndGet();
+            if (running) {
+                stops.incrementAndGet();
+            }
+            running = false;
+        }
+
+        @Override
+        public boolean isRunning() {
+            probing.countDown();
+            if (probeGate != null) {
+                try {
+                    probeGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return running && healthy;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalRegistryTest {
+    private FakeBinary.Fixture fixture;
+    private FakeDaemonLauncher daemon;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = FakeBinary.fixture();
+        daemon = fixture.daemon;
+    }
+
+    @Test(timeout = 30000)
+    public void testStopAllInParallel() throws Exception {
+        daemon.setStopLatency(200, TimeUnit.MILLISECONDS);
+        List<Local> locals = new ArrayList<Local>();
+        for (int i = 0; i < 20; i++) {
+            Local local = new Local(daemon);
+            local.start(options("tunnel-" + i));
+            assertTrue(LocalRegistry.isRegistered(local));
+            locals.add(local);
+        }
+
+        long started = System.nanoTime();
+        assertTrue(Local.stopAll(10, TimeUnit.SECONDS));
+        /* One after the other would take at least 4 seconds */
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 3000);
+
+        assertEquals(0, daemon.getRunningCount());
+        for (Local local : locals) {
+            assertFalse(local.isRunning());
+            assertFalse(LocalRegistry.isRegistered(local));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testStoppedInstanceUnregistered() throws Exception {
+        Local local = new Local(daemon);
+        local.start(options("single"));
+        local.stop();
+        assertFalse(LocalRegistry.isRegistered(local));
+
+        LocalOptions onlyCommand = fixture.builder().onlyCommand(true).build();
+        local.start(onlyCommand);
+        assertFalse(LocalRegistry.isRegistered(local));
+    }
+
+    @Test(timeout = 30000)
+    public void testStopAllTimesOut() throws Exception {
+        daemon.setStopLatency(2, TimeUnit.SECONDS);
+        Local local = new Local(daemon);
+        local.start(options("slow"));
+
+        assertFalse(Local.stopAll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        daemon.setStopLatency(0, TimeUnit.MILLISECONDS);
+        Local.stopAll(10, TimeUnit.SECONDS);
+        fixture.delete();
+    }
+
+    private LocalOptions options(String localIdentifier) {
+        return fixture.builder()
+                .localIdentifier(localIdentifier)
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LogTailTest {
+    private File log;
+    private LogTail tail;
+
+    @Before
+    public void setUp() throws Exception {
+        log = File.createTempFile("local", ".log");
+    }
+
+    @Test(timeout = 10000)
+    public void testFollowsAppendedLines() throws Exception {
+        append("old line\n");
+        tail = new LogTail(log, false, 16, 10, TimeUnit.MILLISECONDS);
+
+        append("2026-10-18 10:00:00 -- [INFO] Connected latency=42ms region=\"us east\"\npart");
+        LogEvent event = tail.poll(5, TimeUnit.SECONDS);
+        assertEquals("2026-10-18 10:00:00", event.getTimestamp());
+        assertEquals("INFO", event.getLevel());
+        assertEquals("Connected latency=42ms region=\"us east\"", event.getMessage());
+        assertEquals("42ms", event.getFields().get("latency"));
+        assertEquals("us east", event.getFields().get("region"));
+
+        assertNull(tail.poll(100, TimeUnit.MILLISECONDS));
+        append("ial line\r\n");
+        assertEquals("partial line", tail.poll(5, TimeUnit.SECONDS).getLine());
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowConsumerHoldsReaderBack() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            lines.append("line ").append(i).append('\n');
+        }
+        append(lines.toString());
+        tail = new LogTail(log, true, 4, 10, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("line " + i, tail.take().getLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRotatedFileReadFromStart() throws Exception {
+        append("first\n");
+        tail = new LogTail(log, true, 16, 10, TimeUnit.MILLISECONDS);
+        assertEquals("first", tail.take().getLine());
+
+        Files.write(log.toPath(), "new\n".getBytes("UTF-8"));
+        assertEquals("new", tail.take().getLine());
+    }
+
+    @Test
+    public void testUnstructuredLine() {
+        LogEvent event = LogEvent.parse("plain text");
+        assertNull(event.getLevel());
+        assertNull(event.getTimestamp());
+        assertEquals("plain text", event.getMessage());
+    }
+
+    private void append(String text) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(text.getBytes("UTF-8"));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (tail != null) {
+            tail.close();
+        }
+        log.delete();
+    }
+}
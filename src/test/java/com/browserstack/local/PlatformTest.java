@@ -0,0 +1,127 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PlatformTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bslocal-platform").toFile();
+    }
+
+    @Test
+    public void testBinaryFileNames() throws Exception {
+        assertEquals("BrowserStackLocal.exe", new Platform("Windows 11", "amd64", false).getBinaryFileName());
+        assertEquals("BrowserStackLocal-darwin-x64", new Platform("Mac OS X", "aarch64", false).getBinaryFileName());
+        assertEquals("BrowserStackLocal-linux-x64", new Platform("Linux", "amd64", false).getBinaryFileName());
+        assertEquals("BrowserStackLocal-alpine", new Platform("Linux", "x86_64", true).getBinaryFileName());
+        assertEquals("BrowserStackLocal-linux-arm64", new Platform("Linux", "aarch64", false).getBinaryFileName());
+        assertEquals("BrowserStackLocal-linux-ia32", new Platform("Linux", "i386", false).getBinaryFileName());
+
+        for (Platform unsupported : Arrays.asList(new Platform("Linux", "ppc64le", false),
+                new Platform("Linux", "aarch64", true), new Platform("SunOS", "sparcv9", false))) {
+            try {
+                unsupported.getBinaryFileName();
+                fail("Expected no binary for " + unsupported.getArch());
+            } catch (LocalException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testElfInterpreter() throws Exception {
+        File glibc = elf(true, "/lib64/ld-linux-x86-64.so.2");
+        File musl = elf(false, "/lib/ld-musl-aarch64.so.1");
+        File notElf = new File(dir, "script");
+        Files.write(notElf.toPath(), "#!/bin/sh\n".getBytes("UTF-8"));
+
+        assertEquals("/lib64/ld-linux-x86-64.so.2", Platform.elfInterpreter(glibc));
+        assertEquals("/lib/ld-musl-aarch64.so.1", Platform.elfInterpreter(musl));
+        assertNull(Platform.elfInterpreter(notElf));
+        assertNull(Platform.elfInterpreter(new File(dir, "missing")));
+
+        File osRelease = new File(dir, "os-release");
+        Files.write(osRelease.toPath(), "NAME=\"Alpine Linux\"\nID=alpine\n".getBytes("UTF-8"));
+        assertFalse(Platform.isMusl(glibc, osRelease));
+        assertTrue(Platform.isMusl(musl, osRelease));
+        assertTrue("os-release decides without an interpreter", Platform.isMusl(notElf, osRelease));
+    }
+
+    @Test
+    public void testSelfExe() throws Exception {
+        Assume.assumeTrue(Platform.SELF_EXE.exists());
+        assertNotNull(Platform.elfInterpreter(Platform.SELF_EXE));
+    }
+
+    @Test
+    public void testOsRelease() throws Exception {
+        File osRelease = new File(dir, "os-release");
+        Files.write(osRelease.toPath(), ("# comment\nNAME='Ubuntu'\nID=ubuntu\nID_LIKE=debian\nVERSION_ID=\"22.04\"\n")
+                .getBytes("UTF-8"));
+
+        assertEquals("Ubuntu", Platform.readOsRelease(osRelease).get("NAME"));
+        assertEquals("22.04", Platform.readOsRelease(osRelease).get("VERSION_ID"));
+        assertFalse(Platform.isMusl(new File(dir, "missing"), osRelease));
+        assertTrue(Platform.readOsRelease(new File(dir, "missing")).isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Writes a minimal ELF file with one PT_INTERP program header
+     */
+    private File elf(boolean is64, String interpreter) throws Exception {
+        byte[] path = (interpreter + "\0").getBytes("UTF-8");
+        int headerSize = is64 ? 64 : 52;
+        int entrySize = is64 ? 56 : 32;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + entrySize + path.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] {0x7f, 'E', 'L', 'F', (byte) (is64 ? 2 : 1), 1, 1});
+        if (is64) {
+            buffer.putLong(0x20, headerSize);
+            buffer.putShort(0x36, (short) entrySize);
+            buffer.putShort(0x38, (short) 1);
+            buffer.putInt(headerSize, 3);
+            buffer.putLong(headerSize + 0x08, headerSize + entrySize);
+            buffer.putLong(headerSize + 0x20, path.length);
+        } else {
+            buffer.putInt(0x1C, headerSize);
+            buffer.putShort(0x2A, (short) entrySize);
+            buffer.putShort(0x2C, (short) 1);
+            buffer.putInt(headerSize, 3);
+            buffer.putInt(headerSize + 0x04, headerSize + entrySize);
+            buffer.putInt(headerSize + 0x10, path.length);
+        }
+        buffer.position(headerSize + entrySize);
+        buffer.put(path);
+
+        File file = new File(dir, is64 ? "elf64" : "elf32");
+        Files.write(file.toPath(), buffer.array());
+        return file;
+    }
+}
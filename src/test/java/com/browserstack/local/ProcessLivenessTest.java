@@ -0,0 +1,54 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeNotNull;
+
+public class ProcessLivenessTest {
+    private static final Callable<Boolean> NO_PROBE = () -> {
+        throw new AssertionError("Fallback probe should not be needed");
+    };
+
+    @Test
+    public void testCurrentProcessIsAlive() throws Exception {
+        long self = Long.parseLong(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        Boolean alive = ProcessLiveness.isAlive(self);
+        assumeNotNull(alive);
+        assertEquals(Boolean.TRUE, alive);
+    }
+
+    @Test
+    public void testMissingProcessIsNotAlive() throws Exception {
+        Boolean alive = ProcessLiveness.isAlive(Integer.MAX_VALUE);
+        assumeNotNull(alive);
+        assertFalse(alive);
+    }
+
+    @Test(timeout = 10000)
+    public void testOnExit() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("windows"));
+        Process process = new ProcessBuilder("/bin/sh", "-c", "echo $$; exec sleep 1").start();
+        long pid = Long.parseLong(new BufferedReader(new InputStreamReader(process.getInputStream())).readLine().trim());
+
+        CompletableFuture<Void> exited = ProcessLiveness.onExit(pid, NO_PROBE);
+        assertFalse(exited.isDone());
+
+        process.waitFor();
+        exited.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 10000)
+    public void testOnExitOfMissingProcess() throws Exception {
+        ProcessLiveness.onExit(Integer.MAX_VALUE, () -> false).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,67 @@
+package com.browserstack.local;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ProcessOutputTest {
+
+    @Test(timeout = 10000)
+    public void testStateReturnedBeforeStreamsClose() throws Exception {
+        PipedOutputStream daemon = new PipedOutputStream();
+        PipedInputStream stdout = new PipedInputStream(daemon);
+        daemon.write("{\"state\":\"connected\",\n\"pid\":1234,\"message\":{\"message\":\"a } in {text\"}}\n".getBytes("utf-8"));
+        daemon.flush();
+
+        ProcessOutput output = ProcessOutput.capture(stdout, stream(""));
+        JSONObject state = output.awaitState();
+
+        assertEquals("connected", state.getString("state"));
+        assertEquals(1234, state.getInt("pid"));
+        daemon.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testStateFromStderr() throws Exception {
+        ProcessOutput output = ProcessOutput.capture(stream(""),
+                stream("{\"state\":\"disconnected\",\"message\":{\"message\":\"Invalid key\"}}"));
+
+        JSONObject state = output.awaitState();
+        assertEquals("disconnected", state.getString("state"));
+        assertEquals("Invalid key", state.getJSONObject("message").getString("message"));
+    }
+
+    @Test(timeout = 10000)
+    public void testLargeStderrDoesNotBlockStdout() throws Exception {
+        char[] noise = new char[4 * ProcessOutput.MAX_CHARS];
+        Arrays.fill(noise, 'x');
+
+        ProcessOutput output = ProcessOutput.capture(stream("BrowserStack Local version 8.9\n"), stream(new String(noise)));
+
+        assertEquals("BrowserStack Local version 8.9", output.awaitStdout());
+        assertEquals(ProcessOutput.MAX_CHARS, output.getStderr().length());
+    }
+
+    @Test(timeout = 10000)
+    public void testInvalidOutput() throws Exception {
+        ProcessOutput output = ProcessOutput.capture(stream("not json"), stream(""));
+        try {
+            output.awaitState();
+            fail("Expected a JSONException");
+        } catch (JSONException expected) {
+        }
+    }
+
+    private static InputStream stream(String text) throws Exception {
+        return new ByteArrayInputStream(text.getBytes("utf-8"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedDaemonTest {
+    private static final List<String> ARGUMENTS = Arrays.asList("--key", "dummy", "-localIdentifier", "shared");
+
+    private File directory;
+    private FakeBinary.Fixture fixture;
+    private FakeDaemonLauncher daemon;
+    private final AtomicInteger spawns = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bslocal").toFile();
+        fixture = FakeBinary.fixture();
+        daemon = fixture.daemon;
+    }
+
+    @Test
+    public void testLastHolderStopsDaemon() throws Exception {
+        SharedDaemon first = new SharedDaemon(directory, ARGUMENTS, daemon);
+        SharedDaemon second = new SharedDaemon(directory, ARGUMENTS, daemon);
+
+        int pid = first.attach(this::spawn);
+        assertEquals(pid, second.attach(this::spawn));
+        assertEquals(1, spawns.get());
+        assertEquals(2, first.holderCount());
+
+        assertFalse(first.detach(this::stop));
+        assertEquals(0, stops.get());
+        assertTrue(second.detach(this::stop));
+        assertEquals(1, stops.get());
+        assertFalse(first.getStateFile().exists());
+        assertTrue(Arrays.equals(new String[] {SharedDaemon.LOCK_NAME + ".lock"}, directory.list()));
+    }
+
+    @Test
+    public void testDeadDaemonRespawned() throws Exception {
+        SharedDaemon first = new SharedDaemon(directory, ARGUMENTS, daemon);
+        int pid = first.attach(this::spawn);
+        daemon.kill(pid);
+
+        int respawned = new SharedDaemon(directory, ARGUMENTS, daemon).attach(this::spawn);
+        assertEquals(2, spawns.get());
+        assertTrue(respawned != pid);
+        assertEquals(1, first.holderCount());
+    }
+
+    @Test
+    public void testHoldersOfDeadJvmsDropped() throws Exception {
+        Assume.assumeNotNull(ProcessLiveness.isAlive(2147483646L));
+        SharedDaemon shared = new SharedDaemon(directory, ARGUMENTS, daemon);
+        shared.attach(this::spawn);
+        String state = new String(Files.readAllBytes(shared.getStateFile().toPath()), "UTF-8");
+        Files.write(shared.getStateFile().toPath(),
+                state.replace("\"holders\":[", "\"holders\":[\"2147483646:gone\",").getBytes("UTF-8"));
+
+        assertEquals(1, shared.holderCount());
+        assertTrue(shared.detach(this::stop));
+        assertEquals(1, stops.get());
+    }
+
+    @Test
+    public void testLocalInstancesShareDaemon() throws Exception {
+        Map<String, String> options = fixture.options();
+        options.put("key", UUID.randomUUID().toString());
+        options.put("shareDaemon", "true");
+
+        Local first = new Local(daemon, directory);
+        Local second = new Local(daemon, directory);
+        first.start(options);
+        second.start(options);
+        assertEquals(1, daemon.getRunningCount());
+        assertEquals(first.pid, second.pid);
+
+        first.stop();
+        assertTrue(second.isRunning());
+        second.stop();
+        assertEquals(0, daemon.getRunningCount());
+        assertEquals(1, directory.list().length);
+    }
+
+    private int spawn() throws Exception {
+        spawns.incrementAndGet();
+        Local local = new Local(daemon);
+        local.start(fixture.builder().localIdentifier("shared").force(true).build());
+        return local.pid;
+    }
+
+    private Void stop() {
+        stops.incrementAndGet();
+        return null;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.delete();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
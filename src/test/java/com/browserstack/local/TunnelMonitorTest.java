@@ -0,0 +1,131 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TunnelMonitorTest {
+    private static final Backoff FAST_RETRY = new Backoff(Integer.MAX_VALUE, 1, 5);
+
+    private FakeBinary.Fixture fixture;
+    private FakeDaemonLauncher daemon;
+    private Local local;
+    private TunnelMonitor monitor;
+    private final BlockingQueue<TunnelMonitor.Event> events = new LinkedBlockingQueue<TunnelMonitor.Event>();
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = FakeBinary.fixture();
+        daemon = fixture.daemon;
+
+        local = new Local(daemon);
+        local.start(fixture.options());
+    }
+
+    @Test(timeout = 10000)
+    public void testRestartsAfterCrash() throws Exception {
+        monitor = monitor(3);
+        int pid = local.pid;
+
+        daemon.kill(pid);
+
+        assertEquals(TunnelMonitor.Event.EXITED, events.take());
+        assertEquals(TunnelMonitor.Event.RESTARTED, events.take());
+        assertTrue(local.isRunning());
+        assertNotEquals(pid, local.pid);
+        assertEquals(1, monitor.getRestartCount());
+
+        /* The restarted daemon is watched as well */
+        daemon.kill(local.pid);
+        assertEquals(TunnelMonitor.Event.EXITED, events.take());
+        assertEquals(TunnelMonitor.Event.RESTARTED, events.take());
+    }
+
+    @Test(timeout = 10000)
+    public void testStopIsNotACrash() throws Exception {
+        monitor = monitor(3);
+
+        local.stop();
+
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+        assertFalse(local.isRunning());
+    }
+
+    @Test(timeout = 10000)
+    public void testStopDuringRestartWins() throws Exception {
+        monitor = monitor(3);
+        daemon.setStartLatency(500, TimeUnit.MILLISECONDS);
+
+        daemon.kill(local.pid);
+        assertEquals(TunnelMonitor.Event.EXITED, events.take());
+        /* The restart is waiting for the handshake */
+        Thread.sleep(100);
+        local.stop();
+
+        assertNull(events.poll(1, TimeUnit.SECONDS));
+        assertFalse(local.isRunning());
+        assertEquals(0, daemon.getRunningCount());
+        assertEquals(0, monitor.getRestartCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testCircuitOpensAfterRepeatedFailures() throws Exception {
+        monitor = monitor(3);
+        daemon.setFailure("Invalid key");
+
+        daemon.kill(local.pid);
+
+        assertEquals(TunnelMonitor.Event.EXITED, events.take());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(TunnelMonitor.Event.RESTART_FAILED, events.take());
+        }
+        assertEquals(TunnelMonitor.Event.CIRCUIT_OPEN, events.take());
+        assertTrue(monitor.isCircuitOpen());
+        assertEquals(0, monitor.getRestartCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedHealthCheckRestarts() throws Exception {
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+        monitor = new TunnelMonitor(local, 3, 1, TimeUnit.MINUTES, FAST_RETRY)
+                .addListener((event, cause) -> events.add(event))
+                .setHealthCheck(healthy::get, 20, TimeUnit.MILLISECONDS)
+                .start();
+        int pid = local.pid;
+
+        healthy.set(false);
+        assertEquals(TunnelMonitor.Event.UNHEALTHY, events.take());
+        healthy.set(true);
+        assertEquals(TunnelMonitor.Event.RESTARTED, events.take());
+        assertNotEquals(pid, local.pid);
+        assertFalse(daemon.isAlive(pid));
+        assertEquals(1, daemon.getRunningCount());
+    }
+
+    private TunnelMonitor monitor(int maxRestarts) {
+        return new TunnelMonitor(local, maxRestarts, 1, TimeUnit.MINUTES, FAST_RETRY)
+                .addListener((event, cause) -> events.add(event))
+                .start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (monitor != null) {
+            monitor.close();
+        }
+        daemon.setFailure(null);
+        local.stop();
+        fixture.delete();
+    }
+}